@@ -0,0 +1,241 @@
+import java.util.Arrays;
+import java.util.Set;
+
+/*
+ * Maps the symbols of an automaton's alphabet to dense column numbers.
+ * Compiled automata use the column to index their flat transition tables.
+ *
+ * Symbols that no transition tells apart share one column, an equivalence
+ * class: two symbols are equivalent when every state has the same targets on
+ * both. A range like [a-z] used the same way everywhere becomes one column,
+ * so tables are narrower and conversions step once per class, not per symbol.
+ * Columns are numbered in order of their smallest symbol, which is the one
+ * symbolAt returns. Instances are immutable once constructed.
+ */
+public class Alphabet {
+    private final char[] symbols; // symbols grouped by column, ascending within a column
+    private final int[] starts;   // column -> index of its first symbol, plus one end entry
+    private final int[] columns;  // symbol -> column, -1 if not in the alphabet
+
+    // builds a mapping with one column per symbol of the given set
+    public Alphabet(Set<Character> alphabet) {
+        this(toArray(alphabet));
+    }
+
+    // builds a mapping with one column per symbol, the symbols may be in any order
+    public Alphabet(char[] alphabet) {
+        this(sorted(alphabet), identity(alphabet.length + 1));
+    }
+
+    /**
+     * Builds the equivalence classes of the symbols on a list of edges
+     * @param from source state of each edge
+     * @param to destination state of each edge
+     * @param labels symbol of each edge, FSA.EPSILON edges are ignored
+     */
+    public Alphabet(int[] from, int[] to, char[] labels) {
+        // dense index of every distinct symbol, ascending
+        int limit = 0;
+        for (char c : labels) {
+            if (c != FSA.EPSILON) {
+                limit = Math.max(limit, c + 1);
+            }
+        }
+        int[] indexOf = new int[limit];
+        for (char c : labels) {
+            if (c != FSA.EPSILON) {
+                indexOf[c] = 1;
+            }
+        }
+        int symbolCount = 0;
+        for (int c = 0; c < limit; c++) {
+            if (indexOf[c] != 0) {
+                indexOf[c] = ++symbolCount; // 1-based while counting, 0 means absent
+            }
+        }
+        char[] distinct = new char[symbolCount];
+        for (int c = 0; c < limit; c++) {
+            if (indexOf[c] != 0) {
+                distinct[--indexOf[c]] = (char) c;
+            }
+        }
+
+        // counting sort the (source, target) keys of the edges by symbol
+        int[] bySymbol = new int[symbolCount + 1];
+        for (char c : labels) {
+            if (c != FSA.EPSILON) {
+                bySymbol[indexOf[c] + 1]++;
+            }
+        }
+        for (int i = 0; i < symbolCount; i++) {
+            bySymbol[i + 1] += bySymbol[i];
+        }
+        long[] keys = new long[bySymbol[symbolCount]];
+        int[] fillKeys = Arrays.copyOf(bySymbol, symbolCount);
+        for (int e = 0; e < labels.length; e++) {
+            if (labels[e] != FSA.EPSILON) {
+                keys[fillKeys[indexOf[labels[e]]]++] = (long) from[e] << 32 | (to[e] & 0xFFFFFFFFL);
+            }
+        }
+
+        // sort and de-duplicate each symbol's keys in place, then hash them
+        int[] lengths = new int[symbolCount];
+        long[] hashes = new long[symbolCount];
+        for (int i = 0; i < symbolCount; i++) {
+            int lo = bySymbol[i];
+            int hi = bySymbol[i + 1];
+            Arrays.sort(keys, lo, hi);
+            int len = 0;
+            long hash = 0;
+            for (int k = lo; k < hi; k++) {
+                if (len == 0 || keys[lo + len - 1] != keys[k]) {
+                    keys[lo + len++] = keys[k];
+                    hash = (hash + keys[k]) * 0x9E3779B97F4A7C15L;
+                }
+            }
+            lengths[i] = len;
+            hashes[i] = hash ^ (hash >>> 29);
+        }
+
+        // symbols with equal key runs share a column, found with an open-addressing table
+        int[] classOf = new int[symbolCount];
+        int[] slots = new int[Integer.highestOneBit(Math.max(1, symbolCount)) << 2];
+        Arrays.fill(slots, -1); // symbol index of the first symbol of a column
+        int width = 0;
+        for (int i = 0; i < symbolCount; i++) {
+            int slot = (int) hashes[i] & (slots.length - 1);
+            while (slots[slot] >= 0 && !sameKeys(keys, bySymbol, lengths, hashes, slots[slot], i)) {
+                slot = (slot + 1) & (slots.length - 1);
+            }
+            if (slots[slot] < 0) {
+                slots[slot] = i;
+                classOf[i] = width++;
+            } else {
+                classOf[i] = classOf[slots[slot]];
+            }
+        }
+
+        // group the symbols by column, counting sort keeps them ascending within a column
+        starts = new int[width + 1];
+        for (int i = 0; i < symbolCount; i++) {
+            starts[classOf[i] + 1]++;
+        }
+        for (int c = 0; c < width; c++) {
+            starts[c + 1] += starts[c];
+        }
+        symbols = new char[symbolCount];
+        int[] fill = Arrays.copyOf(starts, width);
+        for (int i = 0; i < symbolCount; i++) {
+            symbols[fill[classOf[i]]++] = distinct[i];
+        }
+        columns = lookupTable(symbols, starts);
+    }
+
+    /**
+     * Rebuilds a mapping from its grouped form, as returned by symbol and columnStart
+     * @param symbols symbols grouped by column, ascending within a column
+     * @param starts index of the first symbol of each column, plus one end entry
+     * @throws IllegalArgumentException if the groups are malformed
+     */
+    Alphabet(char[] symbols, int[] starts) {
+        if (starts.length == 0 || starts[0] != 0 || starts[starts.length - 1] != symbols.length) {
+            throw new IllegalArgumentException("Column starts do not cover the symbols");
+        }
+        for (int c = 0; c + 1 < starts.length; c++) {
+            if (starts[c + 1] <= starts[c]) {
+                throw new IllegalArgumentException("Empty column " + c);
+            }
+            if (c > 0 && symbols[starts[c]] <= symbols[starts[c - 1]]) {
+                throw new IllegalArgumentException("Columns are not ordered by smallest symbol");
+            }
+        }
+        this.symbols = symbols;
+        this.starts = starts;
+        this.columns = lookupTable(symbols, starts);
+    }
+
+    // builds the symbol -> column table, it only needs to reach the largest symbol
+    private static int[] lookupTable(char[] symbols, int[] starts) {
+        int limit = 0;
+        for (char c : symbols) {
+            limit = Math.max(limit, c + 1);
+        }
+        int[] columns = new int[limit];
+        Arrays.fill(columns, -1);
+        for (int col = 0; col + 1 < starts.length; col++) {
+            for (int i = starts[col]; i < starts[col + 1]; i++) {
+                if (columns[symbols[i]] != -1 || (i > starts[col] && symbols[i] <= symbols[i - 1])) {
+                    throw new IllegalArgumentException("Duplicate or unsorted symbol in alphabet: " + symbols[i]);
+                }
+                columns[symbols[i]] = col;
+            }
+        }
+        return columns;
+    }
+
+    private static char[] toArray(Set<Character> alphabet) {
+        char[] result = new char[alphabet.size()];
+        int i = 0;
+        for (char c : alphabet) {
+            result[i++] = c;
+        }
+        return result;
+    }
+
+    private static char[] sorted(char[] alphabet) {
+        char[] result = alphabet.clone();
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static int[] identity(int n) {
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = i;
+        }
+        return result;
+    }
+
+    // gets the column of a symbol, or -1 if the symbol is not in the alphabet
+    public int columnOf(char symbol) {
+        return symbol < columns.length ? columns[symbol] : -1;
+    }
+
+    // gets the smallest symbol of the given column, stepping on it steps the whole class
+    public char symbolAt(int column) {
+        return symbols[starts[column]];
+    }
+
+    // number of columns (equivalence classes)
+    public int size() {
+        return starts.length - 1;
+    }
+
+    // number of distinct symbols over all columns
+    public int symbolCount() {
+        return symbols.length;
+    }
+
+    // gets a symbol by index, symbols of column c are at columnStart(c)..columnStart(c + 1)
+    public char symbol(int index) {
+        return symbols[index];
+    }
+
+    // gets the index of the first symbol of a column, columnStart(size()) is symbolCount()
+    public int columnStart(int column) {
+        return starts[column];
+    }
+
+    // checks if symbols a and b have the same de-duplicated edge keys
+    private static boolean sameKeys(long[] keys, int[] starts, int[] lengths, long[] hashes, int a, int b) {
+        if (hashes[a] != hashes[b] || lengths[a] != lengths[b]) {
+            return false;
+        }
+        for (int k = 0; k < lengths[a]; k++) {
+            if (keys[starts[a] + k] != keys[starts[b] + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
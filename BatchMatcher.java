@@ -0,0 +1,99 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Tests many inputs against one compiled automaton in parallel.
+ * The input list is split in halves on a ForkJoinPool until slices are small,
+ * and each slice reuses a single StreamMatcher (and its scratch buffers) for
+ * all of its inputs. Recognizers are immutable, so slices share nothing else.
+ */
+public class BatchMatcher {
+    private static final int MIN_SLICE = 256; // inputs per task before splitting stops
+
+    private BatchMatcher() {
+    }
+
+    /**
+     * Tests every input on the common pool
+     * @param recognizer compiled automaton
+     * @param inputs strings to test
+     * @return accept result per input, in input order
+     */
+    public static boolean[] acceptsAll(Recognizer recognizer, List<? extends CharSequence> inputs) {
+        return acceptsAll(recognizer, inputs, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Tests every input on the given pool
+     * @param recognizer compiled automaton
+     * @param inputs strings to test
+     * @param pool pool to run the slices on
+     * @return accept result per input, in input order
+     */
+    public static boolean[] acceptsAll(Recognizer recognizer, List<? extends CharSequence> inputs, ForkJoinPool pool) {
+        // slices index the list, so make sure get(i) is cheap
+        List<? extends CharSequence> list = inputs instanceof RandomAccess ? inputs : new ArrayList<>(inputs);
+        boolean[] results = new boolean[list.size()];
+        int slice = Math.max(MIN_SLICE, list.size() / (pool.getParallelism() * 8));
+        pool.invoke(new Slice(recognizer, list, results, 0, list.size(), slice));
+        return results;
+    }
+
+    /**
+     * Tests every input on the common pool
+     * @param recognizer compiled automaton
+     * @param inputs strings to test
+     * @return set with bit i on if input i is accepted
+     */
+    public static BitSet acceptsAllBits(Recognizer recognizer, List<? extends CharSequence> inputs) {
+        boolean[] results = acceptsAll(recognizer, inputs);
+        BitSet bits = new BitSet(results.length);
+        for (int i = 0; i < results.length; i++) {
+            if (results[i]) {
+                bits.set(i);
+            }
+        }
+        return bits;
+    }
+
+    // tests inputs[from..to), splitting in halves while the range is large
+    private static class Slice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Recognizer recognizer;
+        private final List<? extends CharSequence> inputs;
+        private final boolean[] results;
+        private final int from;
+        private final int to;
+        private final int slice;
+
+        Slice(Recognizer recognizer, List<? extends CharSequence> inputs, boolean[] results, int from, int to, int slice) {
+            this.recognizer = recognizer;
+            this.inputs = inputs;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.slice = slice;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= slice) {
+                StreamMatcher matcher = recognizer.matcher(); // reused for the whole slice
+                for (int i = from; i < to; i++) {
+                    matcher.reset();
+                    matcher.feed(inputs.get(i));
+                    results[i] = matcher.isAccepting();
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Slice(recognizer, inputs, results, from, mid, slice),
+                      new Slice(recognizer, inputs, results, mid, to, slice));
+        }
+    }
+}
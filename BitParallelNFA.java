@@ -0,0 +1,367 @@
+import java.util.Arrays;
+
+/*
+ * Bit-parallel form of a small NFA: the whole set of active states is one or
+ * two longs, and one step is a handful of table lookups and an AND, however
+ * many states are active.
+ *
+ * The NFA is first turned into a Glushkov automaton whose states are
+ * positions: a position is a pair (state t, column c) meaning "an edge on c
+ * into t was just taken", plus position 0 for the start. Its follow set holds
+ * the positions of every edge leaving the epsilon closure of t, so epsilon
+ * edges disappear and a Thompson NFA has one position per symbol in its
+ * pattern. Every edge into a position carries the same column, so a step on
+ * column c is
+ *     next = follow(current) & entered[c]
+ * where follow(D) is the union of the follow sets of the positions in D and
+ * entered[c] holds the positions entered on c. Shift-And is the special case
+ * where position p only follows p - 1, so follow(D) is D << 1; here follow(D)
+ * is instead read from precomputed tables, one per byte of D, as the OR of
+ * up to 16 lookups (Navarro and Raffinot's table method). Positions are
+ * numbered breadth-first from the start, so small active sets stay in the low
+ * bytes.
+ *
+ * Only automata with at most MAX_POSITIONS positions fit. CompiledNFA builds
+ * one while compiling when its automaton fits, uses it for accepts and
+ * matcher, and hands it out with getBitParallel(); NFA.accepts reaches it
+ * through the compiled copy it caches. All fields are final, so one instance
+ * can be shared between threads.
+ */
+public class BitParallelNFA implements Recognizer {
+    public static final int MAX_POSITIONS = 128;
+    // larger automata almost never have few enough positions, so of() does not look
+    static final int MAX_STATES_TRIED = 4 * MAX_POSITIONS;
+
+    private final Alphabet alphabet;
+    private final int positions;
+    private final int chunks;        // bytes of the position set, 8 positions each
+    private final long[] followLo;   // (chunk << 8 | byte value) -> follow set, positions 0..63
+    private final long[] followHi;   // the same, positions 64..127, null if there are at most 64
+    private final long[] enteredLo;  // column -> positions entered on it, 0..63
+    private final long[] enteredHi;
+    private final long acceptLo;
+    private final long acceptHi;
+    private final long start;        // the start position, or no position if it can never accept
+
+    private BitParallelNFA(Alphabet alphabet, Positions p) {
+        this.alphabet = alphabet;
+        positions = p.count;
+        chunks = (positions + 7) >>> 3;
+
+        // each table entry adds the follow set of the lowest bit to the entry without it
+        followLo = followTable(p.followLo, positions, chunks);
+        followHi = positions > 64 ? followTable(p.followHi, positions, chunks) : null;
+
+        enteredLo = new long[alphabet.size()];
+        enteredHi = new long[alphabet.size()];
+        long lo = 0;
+        long hi = 0;
+        for (int position = 0; position < positions; position++) {
+            if (position > 0) {
+                int col = p.column[position];
+                if (position < 64) {
+                    enteredLo[col] |= 1L << position;
+                } else {
+                    enteredHi[col] |= 1L << position;
+                }
+            }
+            if (p.accepting[position]) {
+                if (position < 64) {
+                    lo |= 1L << position;
+                } else {
+                    hi |= 1L << position;
+                }
+            }
+        }
+        acceptLo = lo;
+        acceptHi = hi;
+        start = p.accepting[0] || p.followLo[0] != 0 || p.followHi[0] != 0 ? 1L : 0L;
+    }
+
+    // builds the table of one word of follow(D), indexed by (chunk << 8 | byte of D)
+    private static long[] followTable(long[] follow, int positions, int chunks) {
+        long[] table = new long[chunks << 8];
+        for (int k = 0; k < chunks; k++) {
+            for (int b = 1; b < 256; b++) {
+                // each entry adds the follow set of its lowest bit to the entry without it
+                int position = (k << 3) + Integer.numberOfTrailingZeros(b);
+                table[k << 8 | b] = table[k << 8 | (b & (b - 1))] | (position < positions ? follow[position] : 0);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Packs an NFA given as dense edge arrays, as CompiledNFA holds it while compiling
+     * @param alphabet symbol classes of the edges
+     * @param start start state, or -1 for none
+     * @param closures epsilon closure of each state, without dead states
+     * @param accepting accept flag per state
+     * @param from source state of each edge
+     * @param to destination state of each edge
+     * @param labels symbol of each edge, FSA.EPSILON for epsilon edges
+     * @return bit-parallel form, or null if there are more than MAX_POSITIONS positions
+     *         or more than MAX_STATES_TRIED states
+     */
+    static BitParallelNFA of(Alphabet alphabet, int start, long[][] closures, boolean[] accepting,
+            int[] from, int[] to, char[] labels) {
+        if (closures.length > MAX_STATES_TRIED) {
+            return null;
+        }
+        Positions p = Positions.of(alphabet, start, closures, accepting, from, to, labels);
+        return p == null ? null : new BitParallelNFA(alphabet, p);
+    }
+
+    /**
+     * Runs the NFA over the input with the state set held in locals
+     * @param input string to test
+     * @return true if accepted, false otherwise
+     */
+    @Override
+    public boolean accepts(CharSequence input) {
+        return positions <= 64 ? acceptsOneWord(input) : acceptsTwoWords(input);
+    }
+
+    // same as accepts for up to 64 positions
+    private boolean acceptsOneWord(CharSequence input) {
+        long current = start;
+        if (current == 0) {
+            return false;
+        }
+        int len = input.length();
+        for (int i = 0; i < len; i++) {
+            int col = alphabet.columnOf(input.charAt(i));
+            if (col < 0) {
+                return false;
+            }
+            long follow = 0;
+            for (int k = 0; k < chunks; k++) {
+                follow |= followLo[k << 8 | (int) (current >>> (k << 3)) & 0xFF];
+            }
+            current = follow & enteredLo[col];
+            if (current == 0) {
+                return false; // no active positions left
+            }
+        }
+        return (current & acceptLo) != 0;
+    }
+
+    // same as accepts for 65 to 128 positions
+    private boolean acceptsTwoWords(CharSequence input) {
+        long lo = start;
+        long hi = 0;
+        if (lo == 0) {
+            return false;
+        }
+        int len = input.length();
+        for (int i = 0; i < len; i++) {
+            int col = alphabet.columnOf(input.charAt(i));
+            if (col < 0) {
+                return false;
+            }
+            long followLoBits = 0;
+            long followHiBits = 0;
+            for (int k = 0; k < 8; k++) {
+                int entry = k << 8 | (int) (lo >>> (k << 3)) & 0xFF;
+                followLoBits |= followLo[entry];
+                followHiBits |= followHi[entry];
+            }
+            for (int k = 8; k < chunks; k++) {
+                int entry = k << 8 | (int) (hi >>> ((k - 8) << 3)) & 0xFF;
+                followLoBits |= followLo[entry];
+                followHiBits |= followHi[entry];
+            }
+            lo = followLoBits & enteredLo[col];
+            hi = followHiBits & enteredHi[col];
+            if ((lo | hi) == 0) {
+                return false;
+            }
+        }
+        return (lo & acceptLo) != 0 || (hi & acceptHi) != 0;
+    }
+
+    // creates a streaming matcher holding the position set in two longs
+    @Override
+    public StreamMatcher matcher() {
+        return new WordMatcher();
+    }
+
+    /*
+     * Everything below:
+     * Gets the sizes.
+     */
+
+    // number of positions, the start included
+    public int getPositionCount() {
+        return positions;
+    }
+
+    public Alphabet getAlphabet() {
+        return alphabet;
+    }
+
+    // bytes held by the follow and column tables
+    public long memoryBytes() {
+        return 8L * (followLo.length + (followHi == null ? 0 : followHi.length) + enteredLo.length + enteredHi.length);
+    }
+
+    // streaming matcher over the position words, stops stepping once none is active
+    private class WordMatcher implements StreamMatcher {
+        private long lo = start;
+        private long hi;
+
+        @Override
+        public void reset() {
+            lo = start;
+            hi = 0;
+        }
+
+        @Override
+        public void feed(char symbol) {
+            if ((lo | hi) == 0) {
+                return;
+            }
+            int col = alphabet.columnOf(symbol);
+            if (col < 0) {
+                lo = 0;
+                hi = 0;
+                return;
+            }
+            long followLoBits = 0;
+            long followHiBits = 0;
+            for (int k = 0; k < chunks; k++) {
+                long word = k < 8 ? lo : hi;
+                int entry = k << 8 | (int) (word >>> ((k & 7) << 3)) & 0xFF;
+                followLoBits |= followLo[entry];
+                if (followHi != null) {
+                    followHiBits |= followHi[entry];
+                }
+            }
+            lo = followLoBits & enteredLo[col];
+            hi = followHiBits & enteredHi[col];
+        }
+
+        @Override
+        public void feed(CharSequence input) {
+            int len = input.length();
+            for (int i = 0; i < len && (lo | hi) != 0; i++) {
+                feed(input.charAt(i));
+            }
+        }
+
+        @Override
+        public void feed(char[] input, int off, int len) {
+            int end = off + len;
+            for (int i = off; i < end && (lo | hi) != 0; i++) {
+                feed(input[i]);
+            }
+        }
+
+        @Override
+        public boolean isAccepting() {
+            return (lo & acceptLo) != 0 || (hi & acceptHi) != 0;
+        }
+
+        @Override
+        public boolean isDead() {
+            return (lo | hi) == 0;
+        }
+    }
+
+    // positions of an NFA, numbered breadth-first, with their follow sets
+    private static class Positions {
+        int count;
+        int[] state = new int[MAX_POSITIONS];        // state a position enters, -1 for the start
+        int[] column = new int[MAX_POSITIONS];       // column it is entered on
+        boolean[] accepting = new boolean[MAX_POSITIONS];
+        long[] followLo = new long[MAX_POSITIONS];
+        long[] followHi = new long[MAX_POSITIONS];
+
+        /**
+         * Numbers the positions reachable from the start
+         * @return positions, or null as soon as there are more than MAX_POSITIONS
+         */
+        static Positions of(Alphabet alphabet, int start, long[][] closures, boolean[] accepting,
+                int[] from, int[] to, char[] labels) {
+            int n = closures.length;
+
+            // symbol edges into live states, by source state, one per symbol class
+            int[] offsets = new int[n + 1];
+            for (int e = 0; e < labels.length; e++) {
+                if (isUsed(alphabet, closures, e, to, labels)) {
+                    offsets[from[e] + 1]++;
+                }
+            }
+            for (int s = 0; s < n; s++) {
+                offsets[s + 1] += offsets[s];
+            }
+            int[] edges = new int[offsets[n]];
+            int[] fill = Arrays.copyOf(offsets, n);
+            for (int e = 0; e < labels.length; e++) {
+                if (isUsed(alphabet, closures, e, to, labels)) {
+                    edges[fill[from[e]]++] = e;
+                }
+            }
+
+            Positions p = new Positions();
+            p.state[0] = -1;
+            p.count = 1;
+            for (int position = 0; position < p.count; position++) {
+                int t = p.state[position];
+                if (t < 0 && start < 0) {
+                    continue;
+                }
+                long[] closure = closures[t < 0 ? start : t];
+                for (int w = 0; w < closure.length; w++) {
+                    long bits = closure[w];
+                    while (bits != 0) {
+                        int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        p.accepting[position] |= accepting[s];
+                        for (int i = offsets[s]; i < offsets[s + 1]; i++) {
+                            int e = edges[i];
+                            int col = alphabet.columnOf(labels[e]);
+                            int target = p.find(to[e], col);
+                            if (target < 0) {
+                                if (p.count == MAX_POSITIONS) {
+                                    return null;
+                                }
+                                target = p.count++;
+                                p.state[target] = to[e];
+                                p.column[target] = col;
+                            }
+                            if (target < 64) {
+                                p.followLo[position] |= 1L << target;
+                            } else {
+                                p.followHi[position] |= 1L << target;
+                            }
+                        }
+                    }
+                }
+            }
+            return p;
+        }
+
+        // a symbol edge into a live state, and the one edge standing for its symbol class
+        private static boolean isUsed(Alphabet alphabet, long[][] closures, int e, int[] to, char[] labels) {
+            if (labels[e] == FSA.EPSILON) {
+                return false;
+            }
+            // a live state is in its own closure, a dead one was masked out of it
+            if ((closures[to[e]][to[e] >>> 6] & (1L << to[e])) == 0) {
+                return false;
+            }
+            return labels[e] == alphabet.symbolAt(alphabet.columnOf(labels[e]));
+        }
+
+        // finds the position entering state t on column col, -1 if there is none yet
+        int find(int t, int col) {
+            for (int position = 1; position < count; position++) {
+                if (state[position] == t && column[position] == col) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+    }
+}
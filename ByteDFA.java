@@ -0,0 +1,223 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * DFA over UTF-8 bytes instead of chars, for matching files without decoding.
+ * Every DFA transition on a char is expanded into the byte sequence of its
+ * UTF-8 encoding, with intermediate states for multi-byte sequences. The
+ * table has 256 columns per state and row 0 is a dead state that loops to
+ * itself, so the inner loop is a single array lookup per byte.
+ * Only chars in the Basic Multilingual Plane are supported as symbols.
+ */
+public class ByteDFA {
+    static final int DEAD = 0;
+    private static final long MAP_WINDOW = 1L << 30; // bytes mapped at once
+
+    private final int startState;
+    private final boolean[] accepting;
+    private final int[] table; // (state << 8 | byte) -> next state
+
+    // listener told about every record found while scanning
+    public interface RecordListener {
+        /**
+         * Called once per record, in order
+         * @param index record number, from 0
+         * @param start offset of the first byte of the record
+         * @param end offset just past the last byte (the delimiter is not included)
+         * @param accepted true if the record's bytes are accepted
+         */
+        void onRecord(long index, long start, long end, boolean accepted);
+    }
+
+    /**
+     * Expands a compiled DFA into byte transitions
+     * @param dfa DFA over chars
+     * @throws IllegalArgumentException if a symbol is a surrogate char
+     */
+    public ByteDFA(CompiledDFA dfa) {
+        int n = dfa.getStateCount();
+        Alphabet alphabet = dfa.getAlphabet();
+        int[] rows = new int[(n + 1) << 8]; // dead row plus one per char state, more added below
+        int count = n + 1;
+        byte[] encoded = new byte[3];
+
+        for (int s = 0; s < n; s++) {
+            for (int k = 0; k < alphabet.symbolCount(); k++) {
+                char symbol = alphabet.symbol(k);
+                int to = dfa.step(s, symbol);
+                if (to == CompiledDFA.DEAD) {
+                    continue;
+                }
+                int len = encode(symbol, encoded);
+
+                // walk the byte trie for this state, adding intermediate states as needed
+                int current = s + 1;
+                for (int i = 0; i < len - 1; i++) {
+                    int slot = (current << 8) | (encoded[i] & 0xFF);
+                    if (rows[slot] == DEAD) {
+                        if ((count + 1) << 8 > rows.length) {
+                            rows = Arrays.copyOf(rows, rows.length * 2);
+                        }
+                        rows[slot] = count++;
+                    }
+                    current = rows[slot];
+                }
+                rows[(current << 8) | (encoded[len - 1] & 0xFF)] = to + 1;
+            }
+        }
+
+        table = Arrays.copyOf(rows, count << 8);
+        accepting = new boolean[count];
+        for (int s = 0; s < n; s++) {
+            accepting[s + 1] = dfa.isAccepting(s);
+        }
+        startState = dfa.getStartState() == CompiledDFA.DEAD ? DEAD : dfa.getStartState() + 1;
+    }
+
+    // writes the UTF-8 encoding of a BMP char, returns its length
+    private static int encode(char c, byte[] out) {
+        if (Character.isSurrogate(c)) {
+            throw new IllegalArgumentException("Byte DFA cannot encode surrogate symbol \\u"
+                + Integer.toHexString(c));
+        }
+        if (c < 0x80) {
+            out[0] = (byte) c;
+            return 1;
+        }
+        if (c < 0x800) {
+            out[0] = (byte) (0xC0 | (c >>> 6));
+            out[1] = (byte) (0x80 | (c & 0x3F));
+            return 2;
+        }
+        out[0] = (byte) (0xE0 | (c >>> 12));
+        out[1] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+        out[2] = (byte) (0x80 | (c & 0x3F));
+        return 3;
+    }
+
+    /**
+     * Sees if the bytes between two positions are accepted, without moving the buffer
+     * @param input UTF-8 bytes
+     * @param from index of first byte
+     * @param to index after last byte
+     * @return true if accepted, false otherwise
+     */
+    public boolean accepts(ByteBuffer input, int from, int to) {
+        return accepting[run(input, from, to, startState)];
+    }
+
+    // runs the table over input[from..to) from state, stops early once DEAD
+    int run(ByteBuffer input, int from, int to, int state) {
+        for (int i = from; i < to && state != DEAD; i++) {
+            state = table[(state << 8) | (input.get(i) & 0xFF)];
+        }
+        return state;
+    }
+
+    // gets the next state on one byte
+    int step(int state, byte b) {
+        return table[(state << 8) | (b & 0xFF)];
+    }
+
+    /**
+     * Sees if the bytes of an array are accepted
+     * @param input UTF-8 bytes
+     * @return true if accepted, false otherwise
+     */
+    public boolean accepts(byte[] input) {
+        return accepts(ByteBuffer.wrap(input), 0, input.length);
+    }
+
+    /**
+     * Tests every record between position and limit of a buffer, without moving it
+     * @param input UTF-8 bytes, for example a MappedByteBuffer
+     * @param delimiter byte ending each record, such as '\n'
+     * @param listener told the result of every record
+     * @return number of records
+     */
+    public long forEachRecord(ByteBuffer input, byte delimiter, RecordListener listener) {
+        Scan scan = new Scan(input.position());
+        scan(input, input.position(), input.limit(), 0, delimiter, scan, listener);
+        scan.finish(input.limit(), listener);
+        return scan.index;
+    }
+
+    /**
+     * Tests every record of a file by memory-mapping it, a window at a time
+     * @param file file of UTF-8 records
+     * @param delimiter byte ending each record, such as '\n'
+     * @param listener told the result of every record, offsets are file positions
+     * @return number of records
+     * @throws IOException if the file cannot be read
+     */
+    public long forEachRecord(Path file, byte delimiter, RecordListener listener) throws IOException {
+        Scan scan = new Scan(0);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long offset = 0; offset < size; offset += MAP_WINDOW) {
+                long length = Math.min(size - offset, MAP_WINDOW);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                scan(window, 0, (int) length, offset, delimiter, scan, listener); // state carries across windows
+            }
+            scan.finish(size, listener);
+        }
+        return scan.index;
+    }
+
+    // runs the table over buffer[from..to), reporting a record at every delimiter
+    private void scan(ByteBuffer input, int from, int to, long base, byte delimiter, Scan scan, RecordListener listener) {
+        int state = scan.state;
+        for (int i = from; i < to; i++) {
+            byte b = input.get(i);
+            if (b == delimiter) {
+                listener.onRecord(scan.index++, scan.recordStart, base + i, accepting[state]);
+                state = startState;
+                scan.recordStart = base + i + 1;
+            } else {
+                state = table[(state << 8) | (b & 0xFF)];
+            }
+        }
+        scan.state = state;
+    }
+
+    // position of a scan that may span several buffers
+    private class Scan {
+        int state = startState;
+        long recordStart;
+        long index;
+
+        Scan(long recordStart) {
+            this.recordStart = recordStart;
+        }
+
+        // reports the last record if it was not ended by a delimiter
+        void finish(long end, RecordListener listener) {
+            if (recordStart < end) {
+                listener.onRecord(index++, recordStart, end, accepting[state]);
+            }
+        }
+    }
+
+    /*
+     * Everything below:
+     * Gets the byte table sizes and states.
+     */
+
+    // number of states, including the dead state and multi-byte intermediates
+    public int getStateCount() {
+        return accepting.length;
+    }
+
+    public int getStartState() {
+        return startState;
+    }
+
+    public boolean isAccepting(int state) {
+        return accepting[state];
+    }
+}
@@ -0,0 +1,462 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/*
+ * DFA compiled to JVM bytecode, for small automata matched very often.
+ * Every state becomes a block of code that reads the next char and jumps
+ * straight to the block of the next state through a switch on the char, so
+ * the states live in the program counter instead of a table: no table loads,
+ * no bounds checks. The class file is written by hand and loaded as a hidden
+ * class with MethodHandles.Lookup.defineHiddenClass; it implements
+ * Predicate<CharSequence> and is unloaded with this object.
+ *
+ * The class file uses version 49 (Java 5), which is verified without stack
+ * map frames, so none have to be computed. HotSpot does not JIT methods over
+ * 8000 bytes of bytecode, so larger automata are rejected; use CompiledDFA.
+ * The jumps between state blocks form an irreducible loop, which the JIT
+ * optimizes less than the plain table loop: this wins on short inputs, while
+ * over long inputs CompiledDFA is faster.
+ * Instances are immutable and can be shared between threads.
+ */
+public class BytecodeDFA implements Recognizer {
+    private static final int MAX_CODE_BYTES = 8000; // HotSpot's limit for compiling a method
+
+    // opcodes used by the generated code
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int ILOAD_2 = 0x1c;
+    private static final int ILOAD_3 = 0x1d;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ISTORE_2 = 0x3d;
+    private static final int ISTORE_3 = 0x3e;
+    private static final int ASTORE_1 = 0x4c;
+    private static final int POP = 0x57;
+    private static final int IINC = 0x84;
+    private static final int IF_ICMPLT = 0xa1;
+    private static final int TABLESWITCH = 0xaa;
+    private static final int LOOKUPSWITCH = 0xab;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int CHECKCAST = 0xc0;
+    private static final int GOTO_W = 0xc8;
+
+    // constant pool entries, in the order written by classFile
+    private static final int THIS_CLASS = 2;
+    private static final int OBJECT_CLASS = 4;
+    private static final int PREDICATE_CLASS = 6;
+    private static final int INIT_NAME = 7;
+    private static final int INIT_TYPE = 8;
+    private static final int OBJECT_INIT = 10;
+    private static final int TEST_NAME = 11;
+    private static final int TEST_TYPE = 12;
+    private static final int CHAR_SEQUENCE_CLASS = 14;
+    private static final int LENGTH = 18;
+    private static final int CHAR_AT = 22;
+    private static final int CODE_ATTRIBUTE = 23;
+
+    private final CompiledDFA dfa;
+    private final Predicate<CharSequence> matcher;
+    private final int codeBytes;
+
+    /**
+     * Generates and loads the bytecode for a compiled DFA
+     * @param dfa DFA to translate
+     * @throws IllegalArgumentException if the generated method would be too large to JIT
+     */
+    public BytecodeDFA(CompiledDFA dfa) {
+        this.dfa = dfa;
+        byte[] code = generateCode(dfa);
+        if (code.length > MAX_CODE_BYTES) {
+            throw new IllegalArgumentException("DFA needs " + code.length + " bytes of bytecode, more than the "
+                + MAX_CODE_BYTES + " the JIT compiles; use CompiledDFA instead");
+        }
+        codeBytes = code.length;
+        matcher = load(classFile(code));
+    }
+
+    /*
+     * Emits the body of boolean test(Object input)
+     * Locals: 1 input, 2 input length, 3 index of the next char
+     */
+    private static byte[] generateCode(CompiledDFA dfa) {
+        Code code = new Code();
+        code.op(ALOAD_1);
+        code.op(CHECKCAST);
+        code.u2(CHAR_SEQUENCE_CLASS);
+        code.op(ASTORE_1);
+        code.op(ALOAD_1);
+        code.invokeInterface(LENGTH, 1);
+        code.op(ISTORE_2);
+        code.op(ICONST_0);
+        code.op(ISTORE_3);
+
+        int n = dfa.getStateCount();
+        int reject = n; // the shared "return false" block
+        if (dfa.getStartState() == CompiledDFA.DEAD) {
+            code.op(ICONST_0);
+            code.op(IRETURN);
+            return code.toArray();
+        }
+        code.op(GOTO_W);
+        code.jump(code.size() - 1, dfa.getStartState());
+
+        Alphabet alphabet = dfa.getAlphabet();
+        int[] keys = new int[alphabet.symbolCount()];
+        int[] targets = new int[alphabet.symbolCount()];
+        for (int s = 0; s < n; s++) {
+            code.mark(s);
+
+            // at the end of the input return the accept flag, else read the next char
+            code.op(ILOAD_3);
+            code.op(ILOAD_2);
+            code.op(IF_ICMPLT);
+            code.u2(5); // skip the 2 bytes of the return and this 3-byte branch
+            code.op(dfa.isAccepting(s) ? ICONST_1 : ICONST_0);
+            code.op(IRETURN);
+            code.op(ALOAD_1);
+            code.op(ILOAD_3);
+            code.invokeInterface(CHAR_AT, 2);
+            code.op(IINC);
+            code.u1(3);
+            code.u1(1);
+
+            // the symbols are grouped by column, sort them for the switch
+            int count = 0;
+            for (int k = 0; k < alphabet.symbolCount(); k++) {
+                int to = dfa.step(s, alphabet.symbol(k));
+                if (to != CompiledDFA.DEAD) {
+                    keys[count] = alphabet.symbol(k);
+                    targets[count++] = to;
+                }
+            }
+            sortByKey(keys, targets, count);
+            code.switchOn(keys, targets, count, reject);
+        }
+
+        code.mark(reject);
+        code.op(ICONST_0);
+        code.op(IRETURN);
+        return code.toArray();
+    }
+
+    // insertion sort of the switch cases, keys and targets move together
+    private static void sortByKey(int[] keys, int[] targets, int count) {
+        for (int i = 1; i < count; i++) {
+            int key = keys[i];
+            int target = targets[i];
+            int j = i - 1;
+            for (; j >= 0 && keys[j] > key; j--) {
+                keys[j + 1] = keys[j];
+                targets[j + 1] = targets[j];
+            }
+            keys[j + 1] = key;
+            targets[j + 1] = target;
+        }
+    }
+
+    // wraps the method body in a class implementing Predicate
+    private static byte[] classFile(byte[] code) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(code.length + 512);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);  // minor version
+            out.writeShort(49); // major version, verified without stack map frames
+
+            out.writeShort(24); // constant pool count, entries 1..23
+            utf8(out, "BytecodeDFA$Matcher");                        // 1
+            classRef(out, 1);                                        // 2 THIS_CLASS
+            utf8(out, "java/lang/Object");                           // 3
+            classRef(out, 3);                                        // 4 OBJECT_CLASS
+            utf8(out, "java/util/function/Predicate");               // 5
+            classRef(out, 5);                                        // 6 PREDICATE_CLASS
+            utf8(out, "<init>");                                     // 7 INIT_NAME
+            utf8(out, "()V");                                        // 8 INIT_TYPE
+            nameAndType(out, INIT_NAME, INIT_TYPE);                  // 9
+            memberRef(out, 10, OBJECT_CLASS, 9);                     // 10 OBJECT_INIT
+            utf8(out, "test");                                       // 11 TEST_NAME
+            utf8(out, "(Ljava/lang/Object;)Z");                      // 12 TEST_TYPE
+            utf8(out, "java/lang/CharSequence");                     // 13
+            classRef(out, 13);                                       // 14 CHAR_SEQUENCE_CLASS
+            utf8(out, "length");                                     // 15
+            utf8(out, "()I");                                        // 16
+            nameAndType(out, 15, 16);                                // 17
+            memberRef(out, 11, CHAR_SEQUENCE_CLASS, 17);             // 18 LENGTH
+            utf8(out, "charAt");                                     // 19
+            utf8(out, "(I)C");                                       // 20
+            nameAndType(out, 19, 20);                                // 21
+            memberRef(out, 11, CHAR_SEQUENCE_CLASS, 21);             // 22 CHAR_AT
+            utf8(out, "Code");                                       // 23 CODE_ATTRIBUTE
+
+            out.writeShort(0x0031); // public final super
+            out.writeShort(THIS_CLASS);
+            out.writeShort(OBJECT_CLASS);
+            out.writeShort(1);
+            out.writeShort(PREDICATE_CLASS);
+            out.writeShort(0); // no fields
+
+            out.writeShort(2);
+            byte[] init = { (byte) ALOAD_0, (byte) INVOKESPECIAL, 0, (byte) OBJECT_INIT, (byte) RETURN };
+            method(out, INIT_NAME, INIT_TYPE, 1, 1, init);
+            method(out, TEST_NAME, TEST_TYPE, 2, 4, code);
+
+            out.writeShort(0); // no class attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // cannot happen in memory
+        }
+    }
+
+    private static void utf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void classRef(DataOutputStream out, int name) throws IOException {
+        out.writeByte(7);
+        out.writeShort(name);
+    }
+
+    private static void nameAndType(DataOutputStream out, int name, int type) throws IOException {
+        out.writeByte(12);
+        out.writeShort(name);
+        out.writeShort(type);
+    }
+
+    // tag 10 is a method of a class, 11 a method of an interface
+    private static void memberRef(DataOutputStream out, int tag, int owner, int nameAndType) throws IOException {
+        out.writeByte(tag);
+        out.writeShort(owner);
+        out.writeShort(nameAndType);
+    }
+
+    private static void method(DataOutputStream out, int name, int type, int maxStack, int maxLocals, byte[] code)
+            throws IOException {
+        out.writeShort(0x0001); // public
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(CODE_ATTRIBUTE);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // no exception table
+        out.writeShort(0); // no attributes
+    }
+
+    // defines the class as a hidden class next to this one and creates an instance
+    @SuppressWarnings("unchecked")
+    private static Predicate<CharSequence> load(byte[] classFile) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (Predicate<CharSequence>) lookup.findConstructor(lookup.lookupClass(),
+                MethodType.methodType(void.class)).invoke();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not load generated DFA class", e);
+        }
+    }
+
+    /**
+     * Runs the generated code over the input
+     * @param input string to test
+     * @return true if accepted, false otherwise
+     */
+    @Override
+    public boolean accepts(CharSequence input) {
+        return matcher.test(input);
+    }
+
+    // streaming matcher over the table form, the generated code only takes whole inputs
+    @Override
+    public StreamMatcher matcher() {
+        return dfa.matcher();
+    }
+
+    /*
+     * Everything below:
+     * Gets the source table and the size of the generated code.
+     */
+
+    public CompiledDFA getCompiledDFA() {
+        return dfa;
+    }
+
+    // bytes of bytecode in the generated test method
+    public int getCodeBytes() {
+        return codeBytes;
+    }
+
+    // growable method body with jumps to state blocks patched once every block is placed
+    private static class Code {
+        private byte[] bytes = new byte[256];
+        private int size;
+        private int[] marks = filled(16);     // block -> address, -1 until placed
+        private int[] fixups = new int[64];   // (offset position, instruction address, block) triples
+        private int fixupCount;
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        void u1(int value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >>> 8);
+            u1(value);
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        int size() {
+            return size;
+        }
+
+        void invokeInterface(int method, int argSlots) {
+            op(INVOKEINTERFACE);
+            u2(method);
+            u1(argSlots);
+            u1(0);
+        }
+
+        private static int[] filled(int length) {
+            int[] result = new int[length];
+            Arrays.fill(result, -1);
+            return result;
+        }
+
+        // places a block at the current address
+        void mark(int block) {
+            if (block >= marks.length) {
+                int[] grown = filled(Math.max(block + 1, marks.length * 2));
+                System.arraycopy(marks, 0, grown, 0, marks.length);
+                marks = grown;
+            }
+            marks[block] = size;
+        }
+
+        // writes a 4-byte offset to a block, relative to the instruction at address
+        void jump(int address, int block) {
+            if (fixupCount + 3 > fixups.length) {
+                fixups = Arrays.copyOf(fixups, fixups.length * 2);
+            }
+            fixups[fixupCount++] = size;
+            fixups[fixupCount++] = address;
+            fixups[fixupCount++] = block;
+            u4(0);
+        }
+
+        /*
+         * Writes a switch on the int on the stack, the keys sorted ascending
+         * Picks tableswitch or lookupswitch by the same size and speed estimate javac uses.
+         * Switch jumps do not count as loop back edges, so without a backward goto the
+         * JIT would never compile a long running call (OSR); every target that is
+         * already placed is reached through a goto_w after the switch instead.
+         */
+        void switchOn(int[] keys, int[] targets, int count, int fallback) {
+            if (count == 0) {
+                op(POP); // nothing leaves this state, drop the char and reject
+                op(GOTO_W);
+                jump(size - 1, fallback);
+                return;
+            }
+            int address = size;
+            long low = keys[0];
+            long high = keys[count - 1];
+            long tableCost = 4 + (high - low + 1) + 3 * 3;
+            long lookupCost = 3 + 2L * count + 3L * count;
+            boolean table = tableCost <= lookupCost;
+            int operands = (address + 4) & ~3; // operands start 4-byte aligned
+            int end = operands + (table ? 12 + 4 * (int) (high - low + 1) : 8 + 8 * count);
+
+            // one goto_w per distinct backward target, placed right after the switch
+            int[] backward = new int[count];
+            int backwardCount = 0;
+            for (int k = 0; k < count; k++) {
+                if (isPlaced(targets[k]) && indexOf(backward, backwardCount, targets[k]) < 0) {
+                    backward[backwardCount++] = targets[k];
+                }
+            }
+
+            op(table ? TABLESWITCH : LOOKUPSWITCH);
+            while (size < operands) {
+                u1(0);
+            }
+            jump(address, fallback);
+            if (table) {
+                u4((int) low);
+                u4((int) high);
+                int k = 0;
+                for (long key = low; key <= high; key++) {
+                    target(address, keys[k] == key ? targets[k++] : fallback, backward, backwardCount, end);
+                }
+            } else {
+                u4(count);
+                for (int k = 0; k < count; k++) {
+                    u4(keys[k]);
+                    target(address, targets[k], backward, backwardCount, end);
+                }
+            }
+            for (int j = 0; j < backwardCount; j++) {
+                op(GOTO_W);
+                jump(size - 1, backward[j]);
+            }
+        }
+
+        // writes a switch offset to a block, through its goto_w if the block is behind
+        private void target(int address, int block, int[] backward, int backwardCount, int end) {
+            int j = indexOf(backward, backwardCount, block);
+            if (j < 0) {
+                jump(address, block);
+            } else {
+                u4(end + 5 * j - address);
+            }
+        }
+
+        private boolean isPlaced(int block) {
+            return block < marks.length && marks[block] >= 0;
+        }
+
+        private static int indexOf(int[] values, int count, int value) {
+            for (int i = 0; i < count; i++) {
+                if (values[i] == value) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // patches every jump and returns the finished code
+        byte[] toArray() {
+            for (int i = 0; i < fixupCount; i += 3) {
+                int at = fixups[i];
+                int offset = marks[fixups[i + 2]] - fixups[i + 1];
+                bytes[at] = (byte) (offset >>> 24);
+                bytes[at + 1] = (byte) (offset >>> 16);
+                bytes[at + 2] = (byte) (offset >>> 8);
+                bytes[at + 3] = (byte) offset;
+            }
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
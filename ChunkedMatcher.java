@@ -0,0 +1,335 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Tests one large input against a DFA on many cores, by enumerative
+ * (speculative) DFA simulation. The input is cut into chunks, and since the
+ * state a chunk is entered in is not known until the chunks before it are
+ * done, every chunk is run from all states at once. A chunk's result is a
+ * map from entry state to exit state; the maps are composed left to right
+ * in a ForkJoin reduce and the start state is looked up in the composed map.
+ * The first chunk is only run from the start state.
+ *
+ * Runs that reach the same state are merged and runs that die are dropped,
+ * so on a minimized DFA they usually collapse to a single run within a few
+ * symbols and the rest of the chunk is a plain table walk. A DFA whose runs
+ * never merge, like a counter modulo n, does n times the sequential work,
+ * split over the cores.
+ */
+public class ChunkedMatcher {
+    private static final int MIN_CHUNK = 1 << 16;     // symbols per chunk, smaller inputs run sequentially
+    private static final int CHUNKS_PER_THREAD = 4;   // spare chunks even out uneven progress
+    private static final long MAP_WINDOW = 1L << 30;  // bytes mapped at once
+
+    private ChunkedMatcher() {
+    }
+
+    /**
+     * Tests a char sequence on the common pool
+     * @param dfa compiled DFA
+     * @param input string to test
+     * @return true if accepted, false otherwise
+     */
+    public static boolean accepts(CompiledDFA dfa, CharSequence input) {
+        return accepts(dfa, input, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Tests a char sequence on the given pool
+     * @param dfa compiled DFA
+     * @param input string to test
+     * @param pool pool to run the chunks on
+     * @return true if accepted, false otherwise
+     */
+    public static boolean accepts(CompiledDFA dfa, CharSequence input, ForkJoinPool pool) {
+        if (dfa.getStartState() == CompiledDFA.DEAD) {
+            return false;
+        }
+        int len = input.length();
+        int size = chunkSize(len, pool);
+        List<Chunk> chunks = new ArrayList<>();
+        for (int from = 0; from < len; from += size) {
+            chunks.add(new CharChunk(dfa, input, from, Math.min(len, from + size)));
+        }
+        int end = run(chunks, pool, dfa.getStartState(), dfa.getStateCount() + 1);
+        return end < dfa.getStateCount() && dfa.isAccepting(end);
+    }
+
+    /**
+     * Tests the bytes between two positions of a buffer on the common pool, without moving it
+     * @param dfa byte DFA
+     * @param input UTF-8 bytes, for example a MappedByteBuffer
+     * @param from index of first byte
+     * @param to index after last byte
+     * @return true if accepted, false otherwise
+     */
+    public static boolean accepts(ByteDFA dfa, ByteBuffer input, int from, int to) {
+        return accepts(dfa, input, from, to, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Tests the bytes between two positions of a buffer on the given pool, without moving it
+     * @param dfa byte DFA
+     * @param input UTF-8 bytes, for example a MappedByteBuffer
+     * @param from index of first byte
+     * @param to index after last byte
+     * @param pool pool to run the chunks on
+     * @return true if accepted, false otherwise
+     */
+    public static boolean accepts(ByteDFA dfa, ByteBuffer input, int from, int to, ForkJoinPool pool) {
+        List<Chunk> chunks = new ArrayList<>();
+        addChunks(dfa, input, from, to, chunkSize(to - from, pool), chunks);
+        return dfa.isAccepting(run(chunks, pool, dfa.getStartState(), dfa.getStateCount()));
+    }
+
+    /**
+     * Tests a whole file on the common pool by memory-mapping it
+     * @param dfa byte DFA
+     * @param file file of UTF-8 text, may be larger than 2 GB
+     * @return true if accepted, false otherwise
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean accepts(ByteDFA dfa, Path file) throws IOException {
+        return accepts(dfa, file, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Tests a whole file on the given pool by memory-mapping it, a window at a time
+     * @param dfa byte DFA
+     * @param file file of UTF-8 text, may be larger than 2 GB
+     * @param pool pool to run the chunks on
+     * @return true if accepted, false otherwise
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean accepts(ByteDFA dfa, Path file, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int chunk = chunkSize(size, pool);
+            List<Chunk> chunks = new ArrayList<>();
+            for (long offset = 0; offset < size; offset += MAP_WINDOW) {
+                int length = (int) Math.min(size - offset, MAP_WINDOW);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                addChunks(dfa, window, 0, length, chunk, chunks); // chunks never cross windows
+            }
+            return dfa.isAccepting(run(chunks, pool, dfa.getStartState(), dfa.getStateCount()));
+        }
+    }
+
+    // symbols per chunk: enough chunks to keep every thread busy, none below MIN_CHUNK
+    private static int chunkSize(long length, ForkJoinPool pool) {
+        long chunks = (long) pool.getParallelism() * CHUNKS_PER_THREAD;
+        return (int) Math.min(MAP_WINDOW, Math.max(MIN_CHUNK, (length + chunks - 1) / chunks));
+    }
+
+    private static void addChunks(ByteDFA dfa, ByteBuffer input, int from, int to, int size, List<Chunk> chunks) {
+        for (int i = from; i < to; i += size) {
+            chunks.add(new ByteChunk(dfa, input, i, Math.min(to, i + size)));
+        }
+    }
+
+    // runs every chunk and composes their maps, returns the state the input ends in
+    private static int run(List<Chunk> chunks, ForkJoinPool pool, int start, int states) {
+        if (chunks.isEmpty()) {
+            return start;
+        }
+        if (chunks.size() == 1) {
+            Chunk only = chunks.get(0);
+            return only.run(start, only.from);
+        }
+        return pool.invoke(new Compose(chunks.toArray(new Chunk[0]), 0, chunks.size(), start, states))[start];
+    }
+
+    // composes the maps of chunks[lo..hi), splitting in halves
+    private static class Compose extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk[] chunks;
+        private final int lo;
+        private final int hi;
+        private final int start;
+        private final int states;
+
+        Compose(Chunk[] chunks, int lo, int hi, int start, int states) {
+            this.chunks = chunks;
+            this.lo = lo;
+            this.hi = hi;
+            this.start = start;
+            this.states = states;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (hi - lo == 1) {
+                return chunks[lo].map(states, lo == 0 ? start : -1);
+            }
+            int mid = (lo + hi) >>> 1;
+            Compose left = new Compose(chunks, lo, mid, start, states);
+            left.fork();
+            int[] second = new Compose(chunks, mid, hi, start, states).compute();
+            int[] first = left.join();
+            for (int s = 0; s < states; s++) {
+                first[s] = second[first[s]]; // the second half is entered where the first one leaves
+            }
+            return first;
+        }
+    }
+
+    /*
+     * A slice of the input and the DFA that steps over it.
+     * States are 0..states-1 and the dead state is one of them.
+     */
+    private abstract static class Chunk {
+        final int from;
+        final int to;
+
+        Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        abstract int dead();
+
+        // next state on the symbol at pos
+        abstract int step(int state, int pos);
+
+        // runs one state from pos to the end of the chunk, stops early once dead
+        abstract int run(int state, int pos);
+
+        /**
+         * Runs the chunk from every state at once, or from one known state
+         * @param states number of states, the dead state included
+         * @param known entry state if it is known (the first chunk), else -1
+         * @return exit state per entry state; with a known entry state, only that entry is meaningful
+         */
+        int[] map(int states, int known) {
+            int dead = dead();
+            int[] runs;         // distinct current states, the dead state is never one
+            int[] runOf = new int[states]; // entry state -> index in runs, -1 once dead
+            int k;
+            if (known >= 0) {
+                runs = new int[] { known };
+                Arrays.fill(runOf, known == dead ? -1 : 0);
+                k = known == dead ? 0 : 1;
+            } else {
+                runs = new int[states];
+                k = 0;
+                for (int s = 0; s < states; s++) {
+                    runOf[s] = s == dead ? -1 : k;
+                    if (s != dead) {
+                        runs[k++] = s;
+                    }
+                }
+            }
+
+            // step all runs together until they merge into one
+            int[] next = new int[k];
+            int[] moved = new int[k];   // old run index -> new run index, -1 if it died
+            int[] slotOf = new int[states];
+            Arrays.fill(slotOf, -1);
+            int pos = from;
+            for (; k > 1 && pos < to; pos++) {
+                int count = 0;
+                for (int j = 0; j < k; j++) {
+                    int t = step(runs[j], pos);
+                    if (t == dead) {
+                        moved[j] = -1;
+                    } else {
+                        if (slotOf[t] < 0) {
+                            slotOf[t] = count;
+                            next[count++] = t;
+                        }
+                        moved[j] = slotOf[t];
+                    }
+                }
+                for (int j = 0; j < count; j++) {
+                    slotOf[next[j]] = -1;
+                }
+                if (count < k) {
+                    for (int s = 0; s < states; s++) {
+                        if (runOf[s] >= 0) {
+                            runOf[s] = moved[runOf[s]];
+                        }
+                    }
+                }
+                int[] swap = runs;
+                runs = next;
+                next = swap;
+                k = count;
+            }
+            if (k == 1) {
+                runs[0] = run(runs[0], pos); // one run left, a plain table walk
+            }
+
+            int[] map = new int[states];
+            for (int s = 0; s < states; s++) {
+                map[s] = runOf[s] < 0 ? dead : runs[runOf[s]];
+            }
+            return map;
+        }
+    }
+
+    // chars of a CharSequence on a CompiledDFA, whose DEAD is numbered as state n
+    private static class CharChunk extends Chunk {
+        private final CompiledDFA dfa;
+        private final CharSequence input;
+
+        CharChunk(CompiledDFA dfa, CharSequence input, int from, int to) {
+            super(from, to);
+            this.dfa = dfa;
+            this.input = input;
+        }
+
+        @Override
+        int dead() {
+            return dfa.getStateCount();
+        }
+
+        @Override
+        int step(int state, int pos) {
+            int next = dfa.step(state, input.charAt(pos));
+            return next == CompiledDFA.DEAD ? dead() : next;
+        }
+
+        @Override
+        int run(int state, int pos) {
+            int end = dfa.run(input, pos, to, state);
+            return end == CompiledDFA.DEAD ? dead() : end;
+        }
+    }
+
+    // bytes of a buffer on a ByteDFA, whose dead state is row 0
+    private static class ByteChunk extends Chunk {
+        private final ByteDFA dfa;
+        private final ByteBuffer input;
+
+        ByteChunk(ByteDFA dfa, ByteBuffer input, int from, int to) {
+            super(from, to);
+            this.dfa = dfa;
+            this.input = input;
+        }
+
+        @Override
+        int dead() {
+            return ByteDFA.DEAD;
+        }
+
+        @Override
+        int step(int state, int pos) {
+            return dfa.step(state, input.get(pos));
+        }
+
+        @Override
+        int run(int state, int pos) {
+            return dfa.run(input, pos, to, state);
+        }
+    }
+}
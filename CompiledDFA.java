@@ -0,0 +1,264 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Immutable, table-driven form of a DFA.
+ * States are renumbered to dense IDs 0..n-1 (in order of their original IDs),
+ * symbols are mapped to columns by an Alphabet (one column per class of
+ * symbols the DFA does not tell apart), and the transition function
+ * is stored as a flat int[] table indexed by (state * width + column).
+ * A missing transition is stored as DEAD, which rejects the input; so is a
+ * transition into a state that cannot reach an accept state.
+ *
+ * All fields are final and never change, so one instance can be shared
+ * between threads without locking.
+ */
+public class CompiledDFA implements Recognizer {
+    public static final int DEAD = -1;
+
+    private final Alphabet alphabet;
+    private final int width;           // number of columns per row
+    private final int startState;      // dense ID of start state, DEAD if none
+    private final boolean[] accepting; // dense ID -> accept flag
+    private final int[] table;         // (state * width + column) -> next state
+    private final int[] stateIds;      // dense ID -> original state ID
+
+    // compiles the given DFA into its table form
+    public CompiledDFA(DFA dfa) {
+        // assign dense IDs in order of original IDs so output is stable
+        int n = dfa.getStates().size();
+        stateIds = new int[n];
+        int i = 0;
+        for (State s : dfa.getStates()) {
+            stateIds[i++] = s.getId();
+        }
+        Arrays.sort(stateIds);
+        Map<Integer, Integer> dense = new HashMap<>();
+        for (int d = 0; d < n; d++) {
+            dense.put(stateIds[d], d);
+        }
+
+        accepting = new boolean[n];
+        for (State s : dfa.getAcceptStates()) {
+            accepting[dense.get(s.getId())] = true;
+        }
+
+        // symbols with identical columns share one, so the table is one column per class
+        int m = dfa.getTransitions().size();
+        int[] from = new int[m];
+        int[] to = new int[m];
+        char[] labels = new char[m];
+        int e = 0;
+        for (Transition t : dfa.getTransitions()) {
+            from[e] = dense.get(t.getFromState().getId());
+            to[e] = dense.get(t.getToState().getId());
+            labels[e] = t.getSymbol();
+            e++;
+        }
+        alphabet = new Alphabet(from, to, labels);
+        width = alphabet.size();
+
+        table = new int[n * width];
+        Arrays.fill(table, DEAD);
+        for (e = 0; e < m; e++) {
+            table[from[e] * width + alphabet.columnOf(labels[e])] = to[e];
+        }
+
+        // states that cannot reach an accept state behave exactly like DEAD
+        boolean[] live = liveStates(n);
+        for (int slot = 0; slot < table.length; slot++) {
+            if (table[slot] != DEAD && !live[table[slot]]) {
+                table[slot] = DEAD;
+            }
+        }
+
+        State start = dfa.getStartState();
+        startState = start == null || !live[dense.get(start.getId())] ? DEAD : dense.get(start.getId());
+    }
+
+    // finds the states that can reach an accept state, by a backwards search over the table
+    private boolean[] liveStates(int n) {
+        int[] offsets = new int[n + 1];
+        for (int to : table) {
+            if (to != DEAD) {
+                offsets[to + 1]++;
+            }
+        }
+        for (int s = 0; s < n; s++) {
+            offsets[s + 1] += offsets[s];
+        }
+        int[] sources = new int[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] != DEAD) {
+                sources[fill[table[i]]++] = i / width;
+            }
+        }
+
+        boolean[] live = accepting.clone();
+        int[] stack = new int[n];
+        int top = 0;
+        for (int s = 0; s < n; s++) {
+            if (live[s]) {
+                stack[top++] = s;
+            }
+        }
+        while (top > 0) {
+            int current = stack[--top];
+            for (int i = offsets[current]; i < offsets[current + 1]; i++) {
+                int prev = sources[i];
+                if (!live[prev]) {
+                    live[prev] = true;
+                    stack[top++] = prev;
+                }
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Runs the table over the input without allocating
+     * @param input string to test
+     * @return true if accepted, false otherwise
+     */
+    @Override
+    public boolean accepts(CharSequence input) {
+        if (Metrics.ENABLED) {
+            return acceptsCounted(input);
+        }
+        int state = run(input, 0, input.length(), startState);
+        return state != DEAD && accepting[state];
+    }
+
+    // same as accepts, reporting how far the input got to Metrics
+    private boolean acceptsCounted(CharSequence input) {
+        int state = startState;
+        int len = input.length();
+        int i = 0;
+        for (; i < len && state != DEAD; i++) {
+            state = step(state, input.charAt(i));
+        }
+        Metrics.chars(i);
+        if (state == DEAD && i < len) {
+            Metrics.deadExit();
+        }
+        return state != DEAD && accepting[state];
+    }
+
+    // runs the table over input[from..to) from state, stops early once DEAD
+    int run(CharSequence input, int from, int to, int state) {
+        for (int i = from; i < to && state != DEAD; i++) {
+            state = step(state, input.charAt(i));
+        }
+        return state;
+    }
+
+    /**
+     * Runs the table over a slice of a char array without allocating
+     * @param input characters to test
+     * @param off index of first character
+     * @param len number of characters
+     * @return true if accepted, false otherwise
+     */
+    public boolean accepts(char[] input, int off, int len) {
+        int state = startState;
+        int end = off + len;
+        for (int i = off; i < end && state != DEAD; i++) {
+            state = step(state, input[i]);
+        }
+        return state != DEAD && accepting[state];
+    }
+
+    // creates a streaming matcher holding a single current state
+    @Override
+    public StreamMatcher matcher() {
+        return new TableMatcher();
+    }
+
+    /**
+     * Saves the table in the binary format read by MappedDFA.load
+     * @param file file to write, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path file) throws IOException {
+        MappedDFA.write(this, file);
+    }
+
+    // gets the next dense state from state on symbol, DEAD if no transition
+    public int step(int state, char symbol) {
+        int col = alphabet.columnOf(symbol);
+        return col < 0 ? DEAD : table[state * width + col];
+    }
+
+    /*
+     * Everything below:
+     * Gets the compiled tables and mappings.
+     */
+
+    public int getStartState() {
+        return startState;
+    }
+
+    public boolean isAccepting(int state) {
+        return accepting[state];
+    }
+
+    public int getStateCount() {
+        return accepting.length;
+    }
+
+    public Alphabet getAlphabet() {
+        return alphabet;
+    }
+
+    // gets the original state ID of a dense state
+    public int getOriginalId(int state) {
+        return stateIds[state];
+    }
+
+    // streaming matcher over the table, stops stepping once dead
+    private class TableMatcher implements StreamMatcher {
+        private int state = startState;
+
+        @Override
+        public void reset() {
+            state = startState;
+        }
+
+        @Override
+        public void feed(char symbol) {
+            if (state != DEAD) {
+                state = step(state, symbol);
+            }
+        }
+
+        @Override
+        public void feed(CharSequence input) {
+            int len = input.length();
+            for (int i = 0; i < len && state != DEAD; i++) {
+                state = step(state, input.charAt(i));
+            }
+        }
+
+        @Override
+        public void feed(char[] input, int off, int len) {
+            int end = off + len;
+            for (int i = off; i < end && state != DEAD; i++) {
+                state = step(state, input[i]);
+            }
+        }
+
+        @Override
+        public boolean isAccepting() {
+            return state != DEAD && accepting[state];
+        }
+
+        @Override
+        public boolean isDead() {
+            return state == DEAD;
+        }
+    }
+}
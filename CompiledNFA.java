@@ -0,0 +1,493 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Immutable, bitset-driven form of an NFA.
+ * States are renumbered to dense IDs 0..n-1 and a set of states is a long[]
+ * bitset. Epsilon closures are computed once at construction, and for every
+ * (state, column) pair the closed set of successors is stored as a mask, so
+ * one simulation step is just OR-ing the masks of the active states.
+ * States that cannot reach an accept state are pruned from every mask.
+ * Automata small enough for BitParallelNFA are also packed into one, and
+ * accepts and matcher run on it instead.
+ *
+ * All fields are final and never change after construction, so one instance
+ * can be shared between threads; scratch bitsets belong to each call or matcher.
+ */
+public class CompiledNFA implements Recognizer {
+    private final Alphabet alphabet;
+    private final int width;         // number of columns per state
+    private final int stateCount;
+    private final int words;         // longs per bitset
+    private final long[] startMask;  // closure of start state
+    private final long[] acceptMask; // accepting states
+    private final long[][] successors; // (state * width + column) -> closed successor mask, null if none
+    private final int[] stateIds;    // dense ID -> original state ID
+    private final BitParallelNFA bitParallel; // same automaton as position words, null if it does not fit
+
+    // compiles the given automaton (NFA or DFA) into its bitset form
+    public CompiledNFA(FSA fsa) {
+        this(new Edges(fsa));
+    }
+
+    private CompiledNFA(Edges e) {
+        this(e.stateCount, e.start, e.accepting, e.from, e.to, e.labels);
+        System.arraycopy(e.stateIds, 0, stateIds, 0, e.stateCount);
+    }
+
+    /**
+     * Compiles an automaton given as dense edge arrays
+     * @param stateCount number of states, IDs 0..stateCount-1
+     * @param start start state, or -1 for none
+     * @param accepting accept flag per state
+     * @param from source state of each edge
+     * @param to destination state of each edge
+     * @param labels symbol of each edge, FSA.EPSILON for epsilon edges
+     */
+    public CompiledNFA(int stateCount, int start, boolean[] accepting, int[] from, int[] to, char[] labels) {
+        this.stateCount = stateCount;
+        words = Math.max(1, (stateCount + 63) >>> 6);
+
+        alphabet = new Alphabet(from, to, labels); // one column per equivalence class
+        width = alphabet.size();
+
+        stateIds = new int[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            stateIds[s] = s;
+        }
+
+        acceptMask = new long[words];
+        for (int s = 0; s < stateCount; s++) {
+            if (accepting[s]) {
+                acceptMask[s >>> 6] |= 1L << s;
+            }
+        }
+
+        long[][] closures = computeClosures(from, to, labels);
+
+        // states that cannot reach an accept state are left out of every set,
+        // so a run that can no longer accept shows up as an empty (dead) set
+        long[] live = liveStates(accepting, from, to);
+        for (long[] closure : closures) {
+            for (int w = 0; w < words; w++) {
+                closure[w] &= live[w];
+            }
+        }
+
+        startMask = new long[words];
+        if (start >= 0) {
+            System.arraycopy(closures[start], 0, startMask, 0, words);
+        }
+
+        // successor mask of (s, c) is the union of closures of every target of s on c
+        successors = new long[stateCount * width][];
+        for (int e = 0; e < labels.length; e++) {
+            if (labels[e] == FSA.EPSILON) {
+                continue;
+            }
+            if ((live[to[e] >>> 6] & (1L << to[e])) == 0) {
+                continue;
+            }
+            int col = alphabet.columnOf(labels[e]);
+            if (labels[e] != alphabet.symbolAt(col)) {
+                continue; // every symbol of a class has the same edges, the first one covers them
+            }
+            int slot = from[e] * width + col;
+            if (successors[slot] == null) {
+                successors[slot] = new long[words];
+            }
+            or(successors[slot], closures[to[e]]);
+        }
+
+        bitParallel = BitParallelNFA.of(alphabet, start, closures, accepting, from, to, labels);
+    }
+
+    /**
+     * Estimates the heap a compile takes at its peak, before building anything
+     * @param stateCount number of states
+     * @param edgeCount number of edges, epsilon edges included
+     * @param symbolCount number of distinct symbols, at least the number of columns
+     * @return approximate bytes of closures, successor masks and their index
+     */
+    static long estimateBytes(int stateCount, int edgeCount, int symbolCount) {
+        long maskBytes = 16L + 8L * Math.max(1, (stateCount + 63) >>> 6);
+        long masks = stateCount + Math.min((long) edgeCount, (long) stateCount * Math.max(1, symbolCount));
+        return masks * maskBytes + 4L * stateCount * Math.max(1, symbolCount);
+    }
+
+    // finds the states that can reach an accept state, by a backwards search over all edges
+    private long[] liveStates(boolean[] accepting, int[] from, int[] to) {
+        int[] offsets = new int[stateCount + 1];
+        for (int e = 0; e < to.length; e++) {
+            offsets[to[e] + 1]++;
+        }
+        for (int s = 0; s < stateCount; s++) {
+            offsets[s + 1] += offsets[s];
+        }
+        int[] sources = new int[to.length];
+        int[] fill = Arrays.copyOf(offsets, stateCount);
+        for (int e = 0; e < to.length; e++) {
+            sources[fill[to[e]]++] = from[e];
+        }
+
+        long[] live = new long[words];
+        int[] stack = new int[stateCount];
+        int top = 0;
+        for (int s = 0; s < stateCount; s++) {
+            if (accepting[s]) {
+                live[s >>> 6] |= 1L << s;
+                stack[top++] = s;
+            }
+        }
+        while (top > 0) {
+            int current = stack[--top];
+            for (int i = offsets[current]; i < offsets[current + 1]; i++) {
+                int prev = sources[i];
+                if ((live[prev >>> 6] & (1L << prev)) == 0) {
+                    live[prev >>> 6] |= 1L << prev;
+                    stack[top++] = prev;
+                }
+            }
+        }
+        return live;
+    }
+
+    // computes the epsilon closure of every state with a DFS over epsilon edges
+    private long[][] computeClosures(int[] from, int[] to, char[] labels) {
+        // epsilon adjacency lists in CSR form
+        int[] offsets = new int[stateCount + 1];
+        for (int e = 0; e < labels.length; e++) {
+            if (labels[e] == FSA.EPSILON) {
+                offsets[from[e] + 1]++;
+            }
+        }
+        for (int s = 0; s < stateCount; s++) {
+            offsets[s + 1] += offsets[s];
+        }
+        int[] targets = new int[offsets[stateCount]];
+        int[] fill = Arrays.copyOf(offsets, stateCount);
+        for (int e = 0; e < labels.length; e++) {
+            if (labels[e] == FSA.EPSILON) {
+                targets[fill[from[e]]++] = to[e];
+            }
+        }
+
+        long[][] closures = new long[stateCount][];
+        int[] stack = new int[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            long[] result = new long[words];
+            result[s >>> 6] |= 1L << s;
+            int top = 0;
+            stack[top++] = s;
+            while (top > 0) {
+                int current = stack[--top];
+                for (int i = offsets[current]; i < offsets[current + 1]; i++) {
+                    int next = targets[i];
+                    if ((result[next >>> 6] & (1L << next)) == 0) {
+                        result[next >>> 6] |= 1L << next;
+                        stack[top++] = next;
+                    }
+                }
+            }
+            closures[s] = result;
+        }
+        return closures;
+    }
+
+    /**
+     * Simulates the NFA over the input using two bitsets for the whole run
+     * @param input string to test
+     * @return true if accepted, false otherwise
+     */
+    @Override
+    public boolean accepts(CharSequence input) {
+        if (Metrics.ENABLED) {
+            return acceptsCounted(input);
+        }
+        if (bitParallel != null) {
+            return bitParallel.accepts(input);
+        }
+        if (words == 1) {
+            return acceptsOneWord(input);
+        }
+        long[] current = startMask.clone();
+        long[] next = new long[words];
+        int len = input.length();
+        for (int i = 0; i < len; i++) {
+            if (!step(current, input.charAt(i), next)) {
+                return false; // no active states left
+            }
+            long[] swap = current;
+            current = next;
+            next = swap;
+        }
+        return intersects(current, acceptMask);
+    }
+
+    // same as accepts for up to 64 states, the state set is a local long so nothing is allocated
+    private boolean acceptsOneWord(CharSequence input) {
+        long current = startMask[0];
+        int len = input.length();
+        for (int i = 0; i < len; i++) {
+            int col = alphabet.columnOf(input.charAt(i));
+            if (col < 0) {
+                return false;
+            }
+            long next = 0;
+            long bits = current;
+            while (bits != 0) {
+                long[] mask = successors[Long.numberOfTrailingZeros(bits) * width + col];
+                bits &= bits - 1;
+                if (mask != null) {
+                    next |= mask[0];
+                }
+            }
+            if (next == 0) {
+                return false; // no active states left
+            }
+            current = next;
+        }
+        return (current & acceptMask[0]) != 0;
+    }
+
+    // same as accepts, reporting the input length and active set sizes to Metrics
+    private boolean acceptsCounted(CharSequence input) {
+        long[] current = startMask.clone();
+        long[] next = new long[words];
+        long activeTotal = 0;
+        long activeMax = 0;
+        int len = input.length();
+        int i = 0;
+        boolean alive = !isEmpty(current);
+        for (; i < len && alive; i++) {
+            alive = step(current, input.charAt(i), next);
+            long[] swap = current;
+            current = next;
+            next = swap;
+            long active = 0;
+            for (long word : current) {
+                active += Long.bitCount(word);
+            }
+            activeTotal += active;
+            activeMax = Math.max(activeMax, active);
+        }
+        Metrics.chars(i);
+        Metrics.activeStates(i, activeTotal, activeMax);
+        if (!alive && i < len) {
+            Metrics.deadExit();
+        }
+        return alive && intersects(current, acceptMask);
+    }
+
+    // creates a streaming matcher, over position words when the automaton fits in them
+    @Override
+    public StreamMatcher matcher() {
+        return bitParallel != null ? bitParallel.matcher() : new BitsetMatcher();
+    }
+
+    /**
+     * Computes the states reachable from current on symbol
+     * @param current active state set (closed under epsilon)
+     * @param symbol input symbol
+     * @param next receives the new active state set, overwritten
+     * @return true if any state is active afterwards
+     */
+    public boolean step(long[] current, char symbol, long[] next) {
+        int col = alphabet.columnOf(symbol);
+        if (col < 0) {
+            Arrays.fill(next, 0L);
+            return false;
+        }
+        return stepColumn(current, col, next);
+    }
+
+    // same as step, but takes the alphabet column of the symbol
+    public boolean stepColumn(long[] current, int col, long[] next) {
+        Arrays.fill(next, 0L);
+        boolean any = false;
+        for (int w = 0; w < words; w++) {
+            long bits = current[w];
+            while (bits != 0) {
+                int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                long[] mask = successors[s * width + col];
+                if (mask != null) {
+                    or(next, mask);
+                    any = true;
+                }
+            }
+        }
+        return any;
+    }
+
+    // ORs src into dest
+    private static void or(long[] dest, long[] src) {
+        for (int w = 0; w < dest.length; w++) {
+            dest[w] |= src[w];
+        }
+    }
+
+    // checks if two bitsets share any state
+    static boolean intersects(long[] a, long[] b) {
+        for (int w = 0; w < a.length; w++) {
+            if ((a[w] & b[w]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Everything below:
+     * Gets the compiled masks and mappings.
+     */
+
+    // gets a copy of the start state set
+    public long[] getStartMask() {
+        return startMask.clone();
+    }
+
+    public boolean isAccepting(long[] states) {
+        return intersects(states, acceptMask);
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    // number of longs in a state set
+    public int getWords() {
+        return words;
+    }
+
+    public Alphabet getAlphabet() {
+        return alphabet;
+    }
+
+    // approximate heap held by the masks, the ID map and the bit-parallel form
+    public long memoryBytes() {
+        long bytes = 16L + 4L * successors.length + 2 * (16L + 8L * words) + 4L * stateIds.length;
+        for (long[] mask : successors) {
+            if (mask != null) {
+                bytes += 16L + 8L * words;
+            }
+        }
+        return bytes + (bitParallel == null ? 0 : bitParallel.memoryBytes());
+    }
+
+    // gets the bit-parallel form used by accepts and matcher, null if the automaton does not fit
+    public BitParallelNFA getBitParallel() {
+        return bitParallel;
+    }
+
+    // gets the original state ID of a dense state
+    public int getOriginalId(int state) {
+        return stateIds[state];
+    }
+
+    // streaming matcher over the bitsets, stops stepping once no state is active
+    private class BitsetMatcher implements StreamMatcher {
+        private long[] current = startMask.clone();
+        private long[] next = new long[words];
+        private boolean dead = isEmpty(startMask);
+
+        @Override
+        public void reset() {
+            System.arraycopy(startMask, 0, current, 0, words);
+            dead = isEmpty(startMask);
+        }
+
+        @Override
+        public void feed(char symbol) {
+            if (dead) {
+                return;
+            }
+            dead = !step(current, symbol, next);
+            long[] swap = current;
+            current = next;
+            next = swap;
+        }
+
+        @Override
+        public void feed(CharSequence input) {
+            int len = input.length();
+            for (int i = 0; i < len && !dead; i++) {
+                feed(input.charAt(i));
+            }
+        }
+
+        @Override
+        public void feed(char[] input, int off, int len) {
+            int end = off + len;
+            for (int i = off; i < end && !dead; i++) {
+                feed(input[i]);
+            }
+        }
+
+        @Override
+        public boolean isAccepting() {
+            return !dead && intersects(current, acceptMask);
+        }
+
+        @Override
+        public boolean isDead() {
+            return dead;
+        }
+    }
+
+    // checks if a bitset has no states
+    private static boolean isEmpty(long[] bits) {
+        for (long word : bits) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // flattens an FSA's object graph into dense edge arrays
+    private static class Edges {
+        int stateCount;
+        int start = -1;
+        boolean[] accepting;
+        int[] stateIds;
+        int[] from;
+        int[] to;
+        char[] labels;
+
+        Edges(FSA fsa) {
+            stateCount = fsa.getStates().size();
+            stateIds = new int[stateCount];
+            int i = 0;
+            for (State s : fsa.getStates()) {
+                stateIds[i++] = s.getId();
+            }
+            Arrays.sort(stateIds);
+            Map<Integer, Integer> dense = new HashMap<>();
+            for (int d = 0; d < stateCount; d++) {
+                dense.put(stateIds[d], d);
+            }
+
+            accepting = new boolean[stateCount];
+            for (State s : fsa.getAcceptStates()) {
+                accepting[dense.get(s.getId())] = true;
+            }
+            if (fsa.getStartState() != null) {
+                start = dense.get(fsa.getStartState().getId());
+            }
+
+            int m = fsa.getTransitions().size();
+            from = new int[m];
+            to = new int[m];
+            labels = new char[m];
+            int e = 0;
+            for (Transition t : fsa.getTransitions()) {
+                from[e] = dense.get(t.getFromState().getId());
+                to[e] = dense.get(t.getToState().getId());
+                labels[e] = t.isEpsilon() ? FSA.EPSILON : t.getSymbol();
+                e++;
+            }
+        }
+    }
+}
@@ -59,8 +59,43 @@ public class DFA extends FSA {
         return this;
     }
     
+    /**
+     * Builds the minimal DFA for this DFA's language using Hopcroft's algorithm
+     * @return new minimal DFA with states numbered from 0
+     */
+    public DFA minimize() {
+        return new Minimizer().minimize(this);
+    }
+    
+    /**
+     * Compiles this DFA into an immutable table-driven form
+     * @return compiled DFA with dense state IDs
+     */
+    @Override
+    public CompiledDFA compile() {
+        return new CompiledDFA(this);
+    }
+    
+    /**
+     * Compiles this DFA into a table over UTF-8 bytes
+     * @return byte DFA for matching undecoded input
+     */
+    public ByteDFA compileBytes() {
+        return new ByteDFA(compile());
+    }
+    
+    /**
+     * Compiles this DFA into JVM bytecode loaded as a hidden class
+     * @return recognizer running the generated code
+     * @throws IllegalArgumentException if the DFA is too large for the JIT to compile
+     */
+    public BytecodeDFA compileBytecode() {
+        return new BytecodeDFA(compile());
+    }
+    
     /**
      * Optimized accepts for DFA - uses single state instead of set
+     * Follows the transition function directly instead of scanning transitions
      * @param input string to test
      * @return true if accepted, false otherwise
      */
@@ -73,25 +108,26 @@ public class DFA extends FSA {
         }
         
         // process each character
-        for (char symbol : input.toCharArray()) {
-            State nextState = null;
-            
-            // find transition from current state on this symbol
-            for (Transition t : getTransitions()) {
-                if (t.getFromState().equals(currentState) && 
-                    t.getSymbol() == symbol) {
-                    nextState = t.getToState();
-                    break;
-                }
-            }
+        for (int i = 0; i < input.length(); i++) {
+            Map<Character, State> row = transitionFunction.get(currentState);
             
             // if no transition found, reject
+            State nextState = row == null ? null : row.get(input.charAt(i));
             if (nextState == null) {
+                if (Metrics.ENABLED) {
+                    Metrics.chars(i + 1);
+                    if (i + 1 < input.length()) {
+                        Metrics.deadExit(); // only an exit before the end, as CompiledDFA counts it
+                    }
+                }
                 return false;
             }
             
             currentState = nextState;
         }
+        if (Metrics.ENABLED) {
+            Metrics.chars(input.length());
+        }
         
         // check if final state is accepting
         return getAcceptStates().contains(currentState);
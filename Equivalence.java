@@ -0,0 +1,519 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * Compares the languages of two automata without determinizing either one.
+ *
+ * Two DFAs are checked for equivalence with Hopcroft and Karp's algorithm:
+ * starting from the pair of start states, pairs of states reached by the same
+ * word are merged in a union-find over the states of both DFAs, and a pair is
+ * only explored when its states are not already in one class. That is near
+ * linear in the number of states, however large the product would be.
+ *
+ * Inclusion between NFAs uses antichains: the search explores pairs of one
+ * state of the first automaton and the set of states the second one can be
+ * in after the same word. A pair is dropped when an earlier pair has the same
+ * state and a subset of its set, since any word that breaks inclusion from
+ * the later pair breaks it from the earlier one too. Equivalence between NFAs
+ * is inclusion both ways.
+ *
+ * Every search is breadth first, so a counterexample is a shortest word in
+ * one language and not the other. Only one symbol of each class that neither
+ * automaton tells apart is tried.
+ */
+public class Equivalence {
+    private static final int DEAD = CompiledDFA.DEAD;
+
+    private Equivalence() {
+    }
+
+    /**
+     * Sees if two automata accept the same language
+     * @param a NFA or DFA
+     * @param b NFA or DFA
+     * @return true if every string accepted by one is accepted by the other
+     */
+    public static boolean equivalent(FSA a, FSA b) {
+        if (a instanceof DFA && b instanceof DFA) {
+            return equivalent(((DFA) a).compile(), ((DFA) b).compile());
+        }
+        PackedFSA packedA = new PackedFSA(a);
+        PackedFSA packedB = new PackedFSA(b);
+        return inclusionCounterexample(packedA, packedB) == null && inclusionCounterexample(packedB, packedA) == null;
+    }
+
+    /**
+     * Finds a shortest string accepted by exactly one of two automata
+     * @param a NFA or DFA
+     * @param b NFA or DFA
+     * @return counterexample, or null if the automata are equivalent
+     */
+    public static String counterexample(FSA a, FSA b) {
+        if (a instanceof DFA && b instanceof DFA) {
+            return counterexample(((DFA) a).compile(), ((DFA) b).compile());
+        }
+        PackedFSA packedA = new PackedFSA(a);
+        PackedFSA packedB = new PackedFSA(b);
+        String onlyA = inclusionCounterexample(packedA, packedB);
+        String onlyB = inclusionCounterexample(packedB, packedA);
+        if (onlyA == null || onlyB == null) {
+            return onlyA == null ? onlyB : onlyA;
+        }
+        return onlyB.length() < onlyA.length() ? onlyB : onlyA;
+    }
+
+    /**
+     * Sees if every string accepted by a is accepted by b
+     * @param a NFA or DFA
+     * @param b NFA or DFA
+     * @return true if the language of a is a subset of the language of b
+     */
+    public static boolean includes(FSA a, FSA b) {
+        return inclusionCounterexample(a, b) == null;
+    }
+
+    /**
+     * Finds a shortest string accepted by a but not by b
+     * @param a NFA or DFA
+     * @param b NFA or DFA
+     * @return counterexample, or null if the language of a is a subset of the language of b
+     */
+    public static String inclusionCounterexample(FSA a, FSA b) {
+        if (a instanceof DFA && b instanceof DFA) {
+            return inclusionCounterexample(((DFA) a).compile(), ((DFA) b).compile());
+        }
+        return inclusionCounterexample(new PackedFSA(a), new PackedFSA(b));
+    }
+
+    /**
+     * Sees if two compiled DFAs accept the same language, by Hopcroft-Karp
+     * @param a compiled DFA
+     * @param b compiled DFA
+     * @return true if every string accepted by one is accepted by the other
+     */
+    public static boolean equivalent(CompiledDFA a, CompiledDFA b) {
+        char[] symbols = jointSymbols(a.getAlphabet(), b.getAlphabet());
+        int offset = a.getStateCount(); // states of b follow the states of a
+        int dead = offset + b.getStateCount(); // DEAD of both, the empty language
+        int[] parent = new int[dead + 1];
+        int[] size = new int[dead + 1];
+        for (int i = 0; i <= dead; i++) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+
+        int startA = node(a.getStartState(), 0, dead);
+        int startB = node(b.getStartState(), offset, dead);
+        if (accepting(a, b, offset, dead, startA) != accepting(a, b, offset, dead, startB)) {
+            return false;
+        }
+
+        // every union joins two classes, so at most dead + 1 pairs are ever queued
+        int[] queue = new int[2 * (dead + 1)];
+        int tail = 0;
+        union(parent, size, startA, startB);
+        queue[tail++] = startA;
+        queue[tail++] = startB;
+        for (int head = 0; head < tail; head += 2) {
+            int p = queue[head];
+            int q = queue[head + 1];
+            for (char c : symbols) {
+                int nextP = stepNode(a, b, offset, dead, p, c);
+                int nextQ = stepNode(a, b, offset, dead, q, c);
+                if (find(parent, nextP) == find(parent, nextQ)) {
+                    continue;
+                }
+                if (accepting(a, b, offset, dead, nextP) != accepting(a, b, offset, dead, nextQ)) {
+                    return false;
+                }
+                union(parent, size, nextP, nextQ);
+                queue[tail++] = nextP;
+                queue[tail++] = nextQ;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds a shortest string accepted by exactly one of two compiled DFAs
+     * Checks with Hopcroft-Karp first, the pairs are only searched if they differ
+     * @param a compiled DFA
+     * @param b compiled DFA
+     * @return counterexample, or null if the DFAs are equivalent
+     */
+    public static String counterexample(CompiledDFA a, CompiledDFA b) {
+        return equivalent(a, b) ? null : productSearch(a, b, false);
+    }
+
+    /**
+     * Finds a shortest string accepted by a but not by b, searching the pairs of states
+     * @param a compiled DFA whose language should be included
+     * @param b compiled DFA whose language should include it
+     * @return counterexample, or null if the language of a is a subset of the language of b
+     */
+    public static String inclusionCounterexample(CompiledDFA a, CompiledDFA b) {
+        return productSearch(a, b, true);
+    }
+
+    /**
+     * Finds a shortest string accepted by a but not by b, using antichains
+     * @param a automaton whose language should be included
+     * @param b automaton whose language should include it
+     * @return counterexample, or null if the language of a is a subset of the language of b
+     */
+    public static String inclusionCounterexample(PackedFSA a, PackedFSA b) {
+        if (a.getStartState() < 0) {
+            return null; // a accepts nothing
+        }
+        char[] symbols = jointSymbols(a.getAlphabet(), b.getAlphabet());
+        boolean[] liveA = liveStates(a);
+        boolean[] liveB = liveStates(b);
+        int[] outA = new int[a.getStateCount()];
+        int[] outB = new int[Math.max(1, b.getStateCount())];
+        int[] one = new int[1];
+
+        // dead states of b cannot accept, leaving them out makes more sets comparable
+        int startSize = 0;
+        if (b.getStartState() >= 0) {
+            one[0] = b.getStartState();
+            startSize = keepLive(outB, b.closure(one, 1, outB), liveB);
+        }
+        Antichain pairs = new Antichain();
+        int startSet = pairs.intern(outB, startSize);
+        one[0] = a.getStartState();
+        int startStates = a.closure(one, 1, outA);
+        for (int i = 0; i < startStates; i++) {
+            if (liveA[outA[i]]) {
+                pairs.offer(outA[i], startSet, -1, '\0');
+            }
+        }
+
+        // the pairs are stored in the order they are found, so the array is the BFS queue
+        for (int node = 0; node < pairs.size(); node++) {
+            int p = pairs.state(node);
+            int[] set = pairs.set(node);
+            if (a.isAccepting(p) && !b.isAccepting(set, set.length)) {
+                return pairs.word(node);
+            }
+            for (char c : symbols) {
+                one[0] = p;
+                int nextStates = a.step(one, 1, c, outA);
+                if (nextStates == 0) {
+                    continue;
+                }
+                int nextSize = set.length == 0 ? 0 : keepLive(outB, b.step(set, set.length, c, outB), liveB);
+                int nextSet = pairs.intern(outB, nextSize);
+                for (int i = 0; i < nextStates; i++) {
+                    if (liveA[outA[i]]) {
+                        pairs.offer(outA[i], nextSet, node, c);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Searches the reachable pairs of states of two DFAs breadth first
+     * With inclusion set, stops at a pair where only a accepts; otherwise at a
+     * pair where exactly one accepts. Returns the word that reached it, or null.
+     */
+    private static String productSearch(CompiledDFA a, CompiledDFA b, boolean inclusion) {
+        char[] symbols = jointSymbols(a.getAlphabet(), b.getAlphabet());
+        SubsetTable seen = new SubsetTable(); // pair ID -> {state of a, state of b}
+        Trail trail = new Trail();
+        int[] key = { a.getStartState(), b.getStartState() };
+        if (!pruned(key, inclusion)) {
+            seen.add(key, 2, pairHash(key));
+            trail.add(-1, '\0');
+        }
+
+        // pair IDs are handed out in the order pairs are found, so the table is the BFS queue
+        for (int node = 0; node < seen.size(); node++) {
+            int[] pair = seen.get(node);
+            boolean acceptA = pair[0] != DEAD && a.isAccepting(pair[0]);
+            boolean acceptB = pair[1] != DEAD && b.isAccepting(pair[1]);
+            if (inclusion ? acceptA && !acceptB : acceptA != acceptB) {
+                return trail.word(node);
+            }
+            for (char c : symbols) {
+                key[0] = pair[0] == DEAD ? DEAD : a.step(pair[0], c);
+                key[1] = pair[1] == DEAD ? DEAD : b.step(pair[1], c);
+                int hash = pairHash(key);
+                if (!pruned(key, inclusion) && seen.find(key, 2, hash) < 0) {
+                    seen.add(key, 2, hash);
+                    trail.add(node, c);
+                }
+            }
+        }
+        return null;
+    }
+
+    // hashes a pair key, SubsetTable.hash clusters badly on two small numbers
+    private static int pairHash(int[] key) {
+        long h = (key[0] * 0x9E3779B97F4A7C15L + key[1]) * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // checks if no word can lead from a pair to a counterexample
+    private static boolean pruned(int[] pair, boolean inclusion) {
+        return pair[0] == DEAD && (inclusion || pair[1] == DEAD);
+    }
+
+    // maps a state of one DFA to its union-find node
+    private static int node(int state, int offset, int dead) {
+        return state == DEAD ? dead : state + offset;
+    }
+
+    // steps a union-find node on a symbol in whichever DFA it belongs to
+    private static int stepNode(CompiledDFA a, CompiledDFA b, int offset, int dead, int node, char symbol) {
+        if (node == dead) {
+            return dead;
+        }
+        return node < offset ? node(a.step(node, symbol), 0, dead) : node(b.step(node - offset, symbol), offset, dead);
+    }
+
+    private static boolean accepting(CompiledDFA a, CompiledDFA b, int offset, int dead, int node) {
+        if (node == dead) {
+            return false;
+        }
+        return node < offset ? a.isAccepting(node) : b.isAccepting(node - offset);
+    }
+
+    // finds the root of a node's class, halving the path on the way
+    private static int find(int[] parent, int node) {
+        while (parent[node] != node) {
+            parent[node] = parent[parent[node]];
+            node = parent[node];
+        }
+        return node;
+    }
+
+    // joins the classes of two nodes, the smaller one under the larger
+    private static void union(int[] parent, int[] size, int x, int y) {
+        int rootX = find(parent, x);
+        int rootY = find(parent, y);
+        if (rootX == rootY) {
+            return;
+        }
+        if (size[rootX] < size[rootY]) {
+            int swap = rootX;
+            rootX = rootY;
+            rootY = swap;
+        }
+        parent[rootY] = rootX;
+        size[rootX] += size[rootY];
+    }
+
+    /*
+     * Picks one symbol of each class of symbols that neither alphabet tells apart
+     * A class is a pair of columns, one per alphabet (-1 if the symbol is not in it).
+     * Returns the smallest symbol of each class, ascending.
+     */
+    private static char[] jointSymbols(Alphabet a, Alphabet b) {
+        char[] all = new char[a.symbolCount() + b.symbolCount()];
+        for (int i = 0; i < a.symbolCount(); i++) {
+            all[i] = a.symbol(i);
+        }
+        for (int i = 0; i < b.symbolCount(); i++) {
+            all[a.symbolCount() + i] = b.symbol(i);
+        }
+        Arrays.sort(all);
+
+        Set<Long> classes = new HashSet<>();
+        char[] result = new char[all.length];
+        int count = 0;
+        for (char c : all) {
+            long column = (long) (a.columnOf(c) + 1) << 32 | (b.columnOf(c) + 1);
+            if (classes.add(column)) {
+                result[count++] = c;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    // finds the states that can reach an accept state, by a backwards search over all edges
+    private static boolean[] liveStates(PackedFSA fsa) {
+        int n = fsa.getStateCount();
+        int[] offsets = new int[n + 1];
+        for (int s = 0; s < n; s++) {
+            for (int e = fsa.edgeStart(s); e < fsa.edgeEnd(s); e++) {
+                offsets[fsa.getTarget(e) + 1]++;
+            }
+        }
+        for (int s = 0; s < n; s++) {
+            offsets[s + 1] += offsets[s];
+        }
+        int[] sources = new int[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int s = 0; s < n; s++) {
+            for (int e = fsa.edgeStart(s); e < fsa.edgeEnd(s); e++) {
+                sources[fill[fsa.getTarget(e)]++] = s;
+            }
+        }
+
+        boolean[] live = new boolean[n];
+        int[] stack = new int[n];
+        int top = 0;
+        for (int s = 0; s < n; s++) {
+            if (fsa.isAccepting(s)) {
+                live[s] = true;
+                stack[top++] = s;
+            }
+        }
+        while (top > 0) {
+            int current = stack[--top];
+            for (int i = offsets[current]; i < offsets[current + 1]; i++) {
+                if (!live[sources[i]]) {
+                    live[sources[i]] = true;
+                    stack[top++] = sources[i];
+                }
+            }
+        }
+        return live;
+    }
+
+    // removes the dead states from the first len states, keeping their order
+    private static int keepLive(int[] states, int len, boolean[] live) {
+        int kept = 0;
+        for (int i = 0; i < len; i++) {
+            if (live[states[i]]) {
+                states[kept++] = states[i];
+            }
+        }
+        return kept;
+    }
+
+    // checks if every state of sorted set small is in sorted set big
+    private static boolean isSubset(int[] small, int[] big) {
+        if (small.length > big.length) {
+            return false;
+        }
+        int j = 0;
+        for (int s : small) {
+            while (j < big.length && big[j] < s) {
+                j++;
+            }
+            if (j == big.length || big[j] != s) {
+                return false;
+            }
+            j++;
+        }
+        return true;
+    }
+
+    // BFS tree of the explored pairs, so the word that reached a pair can be spelled out
+    private static class Trail {
+        private int[] parent = new int[16]; // node -> node it was reached from, -1 for a start
+        private char[] via = new char[16];  // node -> symbol it was reached on
+        private int size;
+
+        // records a node reached from parent on symbol, returns its index
+        int add(int from, char symbol) {
+            if (size == parent.length) {
+                parent = Arrays.copyOf(parent, size * 2);
+                via = Arrays.copyOf(via, size * 2);
+            }
+            parent[size] = from;
+            via[size] = symbol;
+            return size++;
+        }
+
+        // spells out the word leading from a start to node
+        String word(int node) {
+            StringBuilder sb = new StringBuilder();
+            for (int n = node; parent[n] >= 0; n = parent[n]) {
+                sb.append(via[n]);
+            }
+            return sb.reverse().toString();
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /*
+     * Pairs of (state of a, interned set of states of b), keeping only the minimal sets per state
+     * A pair is filed under its state and the smallest member of its set (-1 for the empty
+     * set). A subset of S has its smallest member in S, so only the buckets of S's members
+     * need to be checked to find a known pair that subsumes a new one.
+     */
+    private static class Antichain extends Trail {
+        private final SubsetTable sets = new SubsetTable();    // set ID -> sorted states of b
+        private final SubsetTable buckets = new SubsetTable(); // bucket ID -> {state of a, smallest member}
+        private int[] newest = new int[16]; // bucket ID -> its latest pair
+        private int[] states = new int[16]; // pair -> state of a
+        private int[] setIds = new int[16]; // pair -> set ID of the states of b
+        private int[] older = new int[16];  // pair -> previous pair in the same bucket, -1 if none
+        private final int[] key = new int[2];
+
+        // gets the ID of a sorted set, storing it if it is new
+        int intern(int[] set, int len) {
+            int hash = SubsetTable.hash(set, len);
+            int id = sets.find(set, len, hash);
+            return id >= 0 ? id : sets.add(set, len, hash);
+        }
+
+        // adds a pair unless a pair with the same state and a subset of its set is known
+        void offer(int state, int setId, int from, char symbol) {
+            int[] set = sets.get(setId);
+            if (subsumed(state, -1, setId, set)) {
+                return;
+            }
+            for (int member : set) {
+                if (subsumed(state, member, setId, set)) {
+                    return;
+                }
+            }
+
+            int node = add(from, symbol);
+            if (node == states.length) {
+                states = Arrays.copyOf(states, node * 2);
+                setIds = Arrays.copyOf(setIds, node * 2);
+                older = Arrays.copyOf(older, node * 2);
+            }
+            states[node] = state;
+            setIds[node] = setId;
+
+            key[0] = state;
+            key[1] = set.length == 0 ? -1 : set[0];
+            int hash = pairHash(key);
+            int bucket = buckets.find(key, 2, hash);
+            if (bucket < 0) {
+                bucket = buckets.add(key, 2, hash);
+                if (bucket == newest.length) {
+                    newest = Arrays.copyOf(newest, bucket * 2);
+                }
+                newest[bucket] = -1;
+            }
+            older[node] = newest[bucket];
+            newest[bucket] = node;
+        }
+
+        // checks the pairs filed under (state, smallest) for a set that is a subset of set
+        private boolean subsumed(int state, int smallest, int setId, int[] set) {
+            key[0] = state;
+            key[1] = smallest;
+            int bucket = buckets.find(key, 2, pairHash(key));
+            if (bucket < 0) {
+                return false;
+            }
+            for (int k = newest[bucket]; k >= 0; k = older[k]) {
+                if (setIds[k] == setId || isSubset(sets.get(setIds[k]), set)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int state(int node) {
+            return states[node];
+        }
+
+        int[] set(int node) {
+            return sets.get(setIds[node]);
+        }
+    }
+}
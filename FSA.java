@@ -1,4 +1,12 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
@@ -6,6 +14,13 @@ import java.util.Stack;
  * Finite State Automaton (FSA) base class
  * Contains, states, transitions, start state, accept states, and alphabet
  * Can be used as NFA or DFA
+ * Keeps an index of outgoing transitions per state so queries only touch the edges they need
+ * Epsilon closures are cached per state until an epsilon transition is added
+ *
+ * Not safe for concurrent use, not even for reads: closure() fills its cache.
+ * The getters return read-only views of the live sets, which change as the
+ * automaton is built. To share an automaton between threads, freeze() it once
+ * built; to only match, compile() once and share the Recognizer.
  */
 public abstract class FSA {
     public static final char EPSILON = 'ε';
@@ -16,22 +31,41 @@ public abstract class FSA {
     private Set<State> acceptStates;
     private Set<Character> alphabet;
 
+    // read-only views handed out by the getters
+    private final Set<State> statesView;
+    private final Set<Transition> transitionsView;
+    private final Set<State> acceptStatesView;
+    private final Set<Character> alphabetView;
+
+    // indexes kept in sync by addState and addTransition
+    private Map<Integer, State> statesById;
+    private Map<State, List<Transition>> epsilonEdges; // state -> outgoing epsilon transitions
+    private Map<State, Map<Character, List<Transition>>> symbolEdges; // state -> symbol -> outgoing transitions
+
+    // cached epsilon closures, cleared when an epsilon transition is added
+    private Map<State, Set<State>> closureCache;
+    private long closureCacheHits;
+    private long closureCacheMisses;
+
     // constructs empty FSA with no states or transitions
     public FSA() {
         states = new HashSet<>();
         transitions = new HashSet<>();
         acceptStates = new HashSet<>();
         alphabet = new HashSet<>();
+        statesById = new HashMap<>();
+        epsilonEdges = new HashMap<>();
+        symbolEdges = new HashMap<>();
+        closureCache = new HashMap<>();
+        statesView = Collections.unmodifiableSet(states);
+        transitionsView = Collections.unmodifiableSet(transitions);
+        acceptStatesView = Collections.unmodifiableSet(acceptStates);
+        alphabetView = Collections.unmodifiableSet(alphabet);
     }
 
     // finds state by ID
     private State findStatebyId(int id) {
-        for (State s : states) {
-            if (s.getId() == id) {
-                return s;
-            }
-        }
-        return null;
+        return statesById.get(id);
     }
 
     // public method to access findStatebyId
@@ -43,6 +77,7 @@ public abstract class FSA {
     public void addState(int id, boolean isStart, boolean isAccept) {
         State newState = new State(id, isStart, isAccept);
         states.add(newState);
+        statesById.putIfAbsent(id, newState); // first state with an ID wins, as in the set
         if (isStart) {
             startState = newState; // set as start state
         }
@@ -66,15 +101,36 @@ public abstract class FSA {
         // add symbol to alphabet if not epsilon
         if (!t.isEpsilon() && symbol != EPSILON) {
             alphabet.add(symbol);
+            symbolEdges.computeIfAbsent(from, k -> new HashMap<>())
+                .computeIfAbsent(symbol, k -> new ArrayList<>())
+                .add(t);
+        } else {
+            epsilonEdges.computeIfAbsent(from, k -> new ArrayList<>()).add(t);
+            closureCache.clear(); // new epsilon edge can grow any closure
         }
     }
 
     /*
      * Computes epsilon clousre of a given state
      * Returns states which are reachable from the given state via epsilon transitions
-     * Uses DFS with a stack
+     * Uses DFS with a stack, the result is cached and shared between calls
+     * Returns an immutable set (it used to be a fresh HashSet), so callers that
+     * want to add or remove states must copy it first
      */
     public Set<State> closure(State state) {
+        if (state == null) {
+            return Collections.emptySet(); // no start state yet
+        }
+        Set<State> cached = closureCache.get(state);
+        if (cached != null) {
+            closureCacheHits++;
+            return cached;
+        }
+        closureCacheMisses++;
+        if (Metrics.ENABLED) {
+            Metrics.closures(1);
+        }
+
         Set<State> result = new HashSet<>();
         Stack<State> stack = new Stack<>();
     
@@ -86,38 +142,153 @@ public abstract class FSA {
         while (!stack.isEmpty()) {
         State current = stack.pop();
         
-        // find all epsilon transitions from current
-            for (Transition t : transitions) {
-                if (t.getFromState().equals(current) && t.isEpsilon()) {
-                    State next = t.getToState();
+        // follow only the epsilon transitions leaving current
+            for (Transition t : epsilonEdgesFrom(current)) {
+                State next = t.getToState();
                 
                 // if state not found, add it and continue
-                    if (!result.contains(next)) {
-                        result.add(next);
-                        stack.push(next);
-                    }
+                if (!result.contains(next)) {
+                    result.add(next);
+                    stack.push(next);
                 }
             }
         }
     
-        return result;
+        // store as an immutable compact set
+        Set<State> closure = Set.copyOf(result);
+        closureCache.put(state, closure);
+        return closure;
+    }
+
+    /*
+     * Fills the closure cache for every state in one pass
+     * Finds strongly connected components of the epsilon graph with Tarjan's algorithm;
+     * all states in a component share one closure, built from the closures of the
+     * components it points to (which Tarjan always finishes first)
+     */
+    public void precomputeClosures() {
+        closureCache.clear();
+        Map<State, Integer> index = new HashMap<>();
+        Map<State, Integer> low = new HashMap<>();
+        Deque<State> component = new ArrayDeque<>();
+        Set<State> onStack = new HashSet<>();
+        int counter = 0;
+
+        for (State root : states) {
+            if (index.containsKey(root)) {
+                continue;
+            }
+
+            // iterative DFS: work holds the path, edgePos the next edge to try for each state on it
+            Deque<State> work = new ArrayDeque<>();
+            Deque<Integer> edgePos = new ArrayDeque<>();
+            index.put(root, counter);
+            low.put(root, counter++);
+            component.push(root);
+            onStack.add(root);
+            work.push(root);
+            edgePos.push(0);
+
+            while (!work.isEmpty()) {
+                State v = work.peek();
+                int i = edgePos.pop();
+                List<Transition> edges = epsilonEdgesFrom(v);
+
+                if (i < edges.size()) {
+                    edgePos.push(i + 1);
+                    State w = edges.get(i).getToState();
+                    if (!index.containsKey(w)) {
+                        index.put(w, counter);
+                        low.put(w, counter++);
+                        component.push(w);
+                        onStack.add(w);
+                        work.push(w);
+                        edgePos.push(0);
+                    } else if (onStack.contains(w)) {
+                        low.put(v, Math.min(low.get(v), index.get(w)));
+                    }
+                    continue;
+                }
+
+                // all edges of v done, pass its low link up to the parent
+                work.pop();
+                if (!work.isEmpty()) {
+                    State parent = work.peek();
+                    low.put(parent, Math.min(low.get(parent), low.get(v)));
+                }
+
+                // v is the root of a component, pop it and build the shared closure
+                if (low.get(v).equals(index.get(v))) {
+                    List<State> members = new ArrayList<>();
+                    State member;
+                    do {
+                        member = component.pop();
+                        onStack.remove(member);
+                        members.add(member);
+                    } while (!member.equals(v));
+
+                    Set<State> result = new HashSet<>(members);
+                    for (State m : members) {
+                        for (Transition t : epsilonEdgesFrom(m)) {
+                            Set<State> done = closureCache.get(t.getToState());
+                            if (done != null) {
+                                result.addAll(done); // finished component
+                            }
+                        }
+                    }
+                    Set<State> closure = Set.copyOf(result);
+                    for (State m : members) {
+                        closureCache.put(m, closure);
+                    }
+                    if (Metrics.ENABLED) {
+                        Metrics.closures(members.size());
+                    }
+                }
+            }
+        }
+    }
+
+    // number of closure() calls answered from the cache
+    public long getClosureCacheHits() {
+        return closureCacheHits;
+    }
+
+    // number of closure() calls that had to compute the closure
+    public long getClosureCacheMisses() {
+        return closureCacheMisses;
     }
 
     /*
      * Sees if the FSA accepts the given input string
      * Returns true if accepted, false otherwise
+     * Stops early once no state is active, nothing can accept after that
      */
     public boolean accepts(String input) {
         // start from the start state
         Set<State> currentStates = closure(startState);
+        long activeTotal = 0;
+        long activeMax = 0;
         
         // process each character in the input
-        for (char symbol : input.toCharArray()) {
+        int i = 0;
+        for (; i < input.length() && !currentStates.isEmpty(); i++) {
+            char symbol = input.charAt(i);
             Set<State> nextStates = new HashSet<>();
             for (State state : currentStates) {
                 nextStates.addAll(next(state, symbol));
             }
             currentStates = nextStates;
+            if (Metrics.ENABLED) {
+                activeTotal += currentStates.size();
+                activeMax = Math.max(activeMax, currentStates.size());
+            }
+        }
+        if (Metrics.ENABLED) {
+            Metrics.chars(i);
+            Metrics.activeStates(i, activeTotal, activeMax);
+            if (i < input.length()) {
+                Metrics.deadExit();
+            }
         }
         
         // check if any current state is an accepting state
@@ -138,13 +309,9 @@ public abstract class FSA {
         
         // find all transitions from states in the closure with the given symbol
         for (State s : startClosure) {
-            for (Transition t : transitions) {
-                if (t.getFromState().equals(s) && 
-                    !t.isEpsilon() && 
-                    t.getSymbol() == symbol) {
-                    // add the closure of the destination state
-                    result.addAll(closure(t.getToState()));
-                }
+            for (Transition t : symbolEdgesFrom(s, symbol)) {
+                // add the closure of the destination state
+                result.addAll(closure(t.getToState()));
             }
         }
         
@@ -157,22 +324,15 @@ public abstract class FSA {
      */
     public boolean deterministic() {
         // check for epsilon transitions
-        for (Transition t : transitions) {
-            if (t.isEpsilon()) {
-                return false;
-            }
+        if (!epsilonEdges.isEmpty()) {
+            return false;
         }
         
         // check for multiple transitions from same state on same symbol
-        for (State state : states) {
-            Set<Character> symbols = new HashSet<>();
-            for (Transition t : transitions) {
-                if (t.getFromState().equals(state)) {
-                    char symbol = t.getSymbol();
-                    if (symbols.contains(symbol)) {
-                        return false;  // multiple transitions on same symbol
-                    }
-                    symbols.add(symbol);
+        for (Map<Character, List<Transition>> bySymbol : symbolEdges.values()) {
+            for (List<Transition> edges : bySymbol.values()) {
+                if (edges.size() > 1) {
+                    return false;  // multiple transitions on same symbol
                 }
             }
         }
@@ -180,6 +340,22 @@ public abstract class FSA {
         return true;
     }
 
+    // gets the epsilon transitions leaving a state
+    protected List<Transition> epsilonEdgesFrom(State state) {
+        List<Transition> edges = epsilonEdges.get(state);
+        return edges == null ? Collections.emptyList() : edges;
+    }
+
+    // gets the transitions leaving a state on a (non-epsilon) symbol
+    protected List<Transition> symbolEdgesFrom(State state, char symbol) {
+        Map<Character, List<Transition>> bySymbol = symbolEdges.get(state);
+        if (bySymbol == null) {
+            return Collections.emptyList();
+        }
+        List<Transition> edges = bySymbol.get(symbol);
+        return edges == null ? Collections.emptyList() : edges;
+    }
+
     /*
      * Everything below:
      * Gets all methods and puts them into the automata.
@@ -187,12 +363,52 @@ public abstract class FSA {
 
     public abstract DFA toDFA();
 
+    // compiles into an immutable form for fast matching
+    public abstract Recognizer compile();
+
+    // creates a streaming matcher over the compiled form
+    public StreamMatcher matcher() {
+        return compile().matcher();
+    }
+
+    // creates a searcher for the spans of a text this automaton accepts
+    public Searcher searcher(Searcher.Mode mode) {
+        return new Searcher(this, mode);
+    }
+
+    // takes an immutable snapshot that can be shared between threads
+    public FrozenFSA freeze() {
+        return new FrozenFSA(this, compile());
+    }
+
+    // checks if this automaton accepts exactly the same strings as another
+    public boolean equivalentTo(FSA other) {
+        return Equivalence.equivalent(this, other);
+    }
+
+    // checks if every string this automaton accepts is accepted by another
+    public boolean includedIn(FSA other) {
+        return Equivalence.includes(this, other);
+    }
+
+    // tests every input in parallel against the compiled form
+    public boolean[] acceptsAll(List<? extends CharSequence> inputs) {
+        return BatchMatcher.acceptsAll(compile(), inputs);
+    }
+
+    // tests every input in parallel, bit i is on if input i is accepted
+    public BitSet acceptsAllBits(List<? extends CharSequence> inputs) {
+        return BatchMatcher.acceptsAllBits(compile(), inputs);
+    }
+
+    // read-only view, changes as states are added
     public Set<State> getStates() {
-        return states;
+        return statesView;
     }
 
+    // read-only view, changes as transitions are added
     public Set<Transition> getTransitions() {
-        return transitions;
+        return transitionsView;
     }
 
     public State getStartState() {
@@ -200,10 +416,10 @@ public abstract class FSA {
     }
 
     public Set<State> getAcceptStates() {
-        return acceptStates;
+        return acceptStatesView;
     }
 
     public Set<Character> getAlphabet() {
-        return alphabet;
+        return alphabetView;
     }
 }
@@ -0,0 +1,121 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Immutable snapshot of an NFA or DFA, made by FSA.freeze() once the
+ * automaton is built. The states, transitions, accept states and alphabet
+ * are copied into unmodifiable sets, the per-state indexes are built once,
+ * and the automaton is compiled (CompiledDFA for a DFA, CompiledNFA for an
+ * NFA), so nothing is computed or cached later.
+ *
+ * Every field is final and nothing changes after construction, so an
+ * instance is safely published by any reference and can be shared by any
+ * number of threads without locking. accepts never allocates for a DFA, or
+ * for an NFA of up to 64 states; each thread uses its own matcher().
+ * Changing the source automaton later does not change the snapshot.
+ */
+public class FrozenFSA implements Recognizer {
+    private final Set<State> states;
+    private final Set<Transition> transitions;
+    private final State startState;
+    private final Set<State> acceptStates;
+    private final Set<Character> alphabet;
+    private final boolean deterministic;
+
+    private final Map<Integer, State> statesById;
+    private final Map<State, List<Transition>> outgoing; // state -> every transition leaving it
+    private final Recognizer recognizer;
+
+    /**
+     * Snapshots an automaton, use FSA.freeze() instead
+     * @param fsa automaton to copy
+     * @param recognizer compiled form of the automaton
+     */
+    FrozenFSA(FSA fsa, Recognizer recognizer) {
+        this.states = Set.copyOf(fsa.getStates());
+        this.transitions = Set.copyOf(fsa.getTransitions());
+        this.startState = fsa.getStartState();
+        this.acceptStates = Set.copyOf(fsa.getAcceptStates());
+        this.alphabet = Set.copyOf(fsa.getAlphabet());
+        this.deterministic = fsa.deterministic();
+        this.recognizer = recognizer;
+
+        Map<Integer, State> byId = new HashMap<>();
+        for (State s : states) {
+            byId.put(s.getId(), s);
+        }
+        this.statesById = Map.copyOf(byId);
+
+        Map<State, List<Transition>> edges = new HashMap<>();
+        for (Transition t : transitions) {
+            edges.computeIfAbsent(t.getFromState(), k -> new ArrayList<>()).add(t);
+        }
+        edges.replaceAll((state, list) -> List.copyOf(list));
+        this.outgoing = Map.copyOf(edges);
+    }
+
+    /**
+     * Sees if the automaton accepts the given input string, safe from any thread
+     * @param input string to test
+     * @return true if accepted, false otherwise
+     */
+    @Override
+    public boolean accepts(CharSequence input) {
+        return recognizer.accepts(input);
+    }
+
+    // creates a streaming matcher, each thread needs its own
+    @Override
+    public StreamMatcher matcher() {
+        return recognizer.matcher();
+    }
+
+    /*
+     * Everything below:
+     * Gets the snapshot's sets, indexes and compiled form.
+     */
+
+    public Set<State> getStates() {
+        return states;
+    }
+
+    public Set<Transition> getTransitions() {
+        return transitions;
+    }
+
+    public State getStartState() {
+        return startState;
+    }
+
+    public Set<State> getAcceptStates() {
+        return acceptStates;
+    }
+
+    public Set<Character> getAlphabet() {
+        return alphabet;
+    }
+
+    // checks if the automaton was deterministic when frozen
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+
+    // finds a state by ID, null if there is none
+    public State getStateById(int id) {
+        return statesById.get(id);
+    }
+
+    // gets the transitions leaving a state, epsilon ones included
+    public List<Transition> getTransitionsFrom(State state) {
+        return outgoing.getOrDefault(state, Collections.emptyList());
+    }
+
+    // gets the compiled form accepts runs on
+    public Recognizer getRecognizer() {
+        return recognizer;
+    }
+}
@@ -0,0 +1,222 @@
+import java.util.Arrays;
+
+/*
+ * The cache shared by the automata that determinize as they match: LazyDFA,
+ * MultiMatcher and the scan DFAs of Searcher. A DFA state is a key stored in
+ * a SubsetTable (usually a set of NFA states), and its row of transitions is
+ * filled in one entry at a time, the first time each is taken. What a state
+ * means to the matcher (an accept flag, the patterns it accepts, scan flags)
+ * is a payload the subclass keeps in its own array, indexed by state and
+ * grown or dropped with the cache through resizePayload.
+ *
+ * The cache holds at most maxStates DFA states; when it is full it is cleared
+ * and rebuilt from the current state, as RE2 does. For plain sets of NFA
+ * states run() does the matching: if the cache is cleared again before enough
+ * input has gone by to pay for it, the rest of that input is matched with
+ * bitset NFA simulation instead.
+ *
+ * Not safe for concurrent use: matching fills the cache.
+ */
+public abstract class LazyCache {
+    static final int UNKNOWN = -2;  // transition not computed yet
+    static final int DEAD = -1;     // transition to the empty set
+    static final int FALLBACK = -3; // cache thrashed, switch to NFA simulation
+    private static final int MIN_CHARS_PER_STATE = 10;
+
+    final CompiledNFA nfa;
+    final Alphabet alphabet;
+    final int width;     // columns per row of transitions
+    final int maxStates;
+
+    SubsetTable table;   // DFA state -> key
+    int[] transitions;   // (state * width + column) -> next state, UNKNOWN or DEAD
+    int startState;      // UNKNOWN after a clear
+    private int capacity; // states the rows and payload have room for
+
+    // scratch space reused by every match
+    final long[] current;
+    final long[] next;   // after run() returns FALLBACK, the set the simulation ended in
+    final int[] key;
+
+    private long charsSinceClear; // input matched since the last clear
+    private long cacheClears;
+    private long fallbacks;
+
+    /**
+     * Sets up an empty cache, subclasses call clearCache() once their payload is ready
+     * @param nfa NFA whose state sets are cached
+     * @param width columns per row of transitions
+     * @param keyLength longest key a state can have
+     * @param maxStates largest number of DFA states kept in the cache
+     */
+    LazyCache(CompiledNFA nfa, int width, int keyLength, int maxStates) {
+        this.nfa = nfa;
+        this.alphabet = nfa.getAlphabet();
+        this.width = width;
+        this.maxStates = maxStates;
+        current = new long[nfa.getWords()];
+        next = new long[nfa.getWords()];
+        key = new int[keyLength];
+    }
+
+    // resizes the payload array to capacity states, keeping the first ones; 0 drops it all
+    abstract void resizePayload(int capacity);
+
+    // sets the payload of a state added by internSet, from its set of NFA states
+    void tagState(int id, long[] states) {
+    }
+
+    /**
+     * Runs the cached DFA over the whole input
+     * @param input string to match
+     * @return the DFA state reached, DEAD if the input was rejected early, or FALLBACK
+     *         if the cache thrashed and the set the simulation ended in is left in next
+     */
+    int run(CharSequence input) {
+        int state = startSet();
+        int len = input.length();
+        int i = 0;
+        while (i < len && state >= 0) {
+            int col = alphabet.columnOf(input.charAt(i++));
+            if (col < 0) {
+                state = DEAD;
+                break;
+            }
+            int to = transitions[state * width + col];
+            if (to == UNKNOWN) {
+                to = stepSet(state, col, i - 1);
+            }
+            state = to;
+        }
+        // one exit for every outcome, so a clear at pos (which set it to -pos) is always paid back
+        charsSinceClear += i;
+        if (state == FALLBACK && !simulate(input, i)) {
+            return DEAD;
+        }
+        return state;
+    }
+
+    // gets the start state, re-adding the start set after a cache clear
+    int startSet() {
+        if (startState == UNKNOWN) {
+            long[] startMask = nfa.getStartMask();
+            int len = SubsetConstruction.toKey(startMask, key);
+            startState = table.find(key, len, SubsetTable.hash(key, len));
+            if (startState < 0) {
+                if (table.size() >= maxStates) {
+                    clearCache();
+                }
+                startState = internSet(startMask);
+            }
+        }
+        return startState;
+    }
+
+    // computes and caches the transition from state on column, pos is the input position
+    private int stepSet(int state, int col, int pos) {
+        SubsetConstruction.toBits(table.get(state), current);
+        if (!nfa.stepColumn(current, col, next)) {
+            transitions[state * width + col] = DEAD;
+            return DEAD;
+        }
+
+        int len = SubsetConstruction.toKey(next, key);
+        int hash = SubsetTable.hash(key, len);
+        int to = table.find(key, len, hash);
+        if (to >= 0) {
+            transitions[state * width + col] = to;
+            return to;
+        }
+
+        if (table.size() >= maxStates) {
+            // a clear that did not pay for itself means the cache is thrashing
+            boolean thrashing = cacheClears > 0 && charsSinceClear + pos < (long) MIN_CHARS_PER_STATE * maxStates;
+            clearCache();
+            charsSinceClear = -pos; // only count input after this point
+            if (thrashing) {
+                fallbacks++;
+                return FALLBACK;
+            }
+            return internSet(next); // source state is gone, only the target is kept
+        }
+
+        to = internSet(next);
+        transitions[state * width + col] = to;
+        return to;
+    }
+
+    // adds a set of NFA states as a new DFA state
+    private int internSet(long[] states) {
+        int len = SubsetConstruction.toKey(states, key);
+        int id = addState(key, len, SubsetTable.hash(key, len));
+        tagState(id, states);
+        return id;
+    }
+
+    /**
+     * Adds a key as a new DFA state with no transitions known, growing the rows and payload
+     * @return ID of the new state
+     */
+    int addState(int[] key, int len, int hash) {
+        int id = table.add(key, len, hash);
+        if (id >= capacity) {
+            int grown = Math.min(Math.max(16, (id + 1) * 2), maxStates);
+            capacity = grown;
+            int oldLength = transitions.length;
+            transitions = Arrays.copyOf(transitions, grown * width);
+            Arrays.fill(transitions, oldLength, transitions.length, UNKNOWN);
+            resizePayload(grown);
+        }
+        return id;
+    }
+
+    // drops every cached DFA state
+    void clearCache() {
+        if (table != null) {
+            cacheClears++;
+        }
+        table = new SubsetTable();
+        transitions = new int[0];
+        capacity = 0;
+        resizePayload(0);
+        startState = UNKNOWN;
+        charsSinceClear = 0;
+    }
+
+    // finishes a match with bitset NFA simulation from the set in next, leaving the result there
+    private boolean simulate(CharSequence input, int from) {
+        long[] a = next;
+        long[] b = current;
+        for (int i = from; i < input.length(); i++) {
+            if (!nfa.step(a, input.charAt(i), b)) {
+                return false;
+            }
+            long[] swap = a;
+            a = b;
+            b = swap;
+        }
+        if (a != next) {
+            System.arraycopy(a, 0, next, 0, next.length);
+        }
+        return true;
+    }
+
+    /*
+     * Everything below:
+     * Gets cache statistics.
+     */
+
+    // number of DFA states currently cached
+    public int getCachedStates() {
+        return table.size();
+    }
+
+    public long getCacheClears() {
+        return cacheClears;
+    }
+
+    // number of matches finished by NFA simulation because the cache thrashed
+    public long getFallbacks() {
+        return fallbacks;
+    }
+}
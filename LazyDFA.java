@@ -0,0 +1,57 @@
+import java.util.Arrays;
+
+/*
+ * DFA that is built on the fly while matching (determinize-as-you-match).
+ * A DFA state is created only when matching first reaches its set of NFA
+ * states, and each transition is computed only the first time it is taken.
+ * The cache holds at most maxStates DFA states; when it is full it is
+ * cleared and rebuilt from the current state, as RE2 does. If the cache
+ * is cleared again before enough input has gone by to pay for it, the rest
+ * of that input is matched with plain bitset NFA simulation instead.
+ * The cache itself is LazyCache; the payload of each state is its accept flag.
+ *
+ * Not safe for concurrent use: matching fills the cache.
+ */
+public class LazyDFA extends LazyCache {
+    private boolean[] accepting; // DFA state -> accept flag
+
+    /**
+     * Constructs a lazy DFA over a compiled NFA
+     * @param nfa NFA to determinize on demand
+     * @param maxStates largest number of DFA states kept in the cache
+     */
+    public LazyDFA(CompiledNFA nfa, int maxStates) {
+        super(nfa, nfa.getAlphabet().size(), nfa.getStateCount(), checkSize(maxStates));
+        clearCache();
+    }
+
+    private static int checkSize(int maxStates) {
+        if (maxStates < 2) {
+            throw new IllegalArgumentException("Lazy DFA cache needs room for at least 2 states");
+        }
+        return maxStates;
+    }
+
+    /**
+     * Sees if the automaton accepts the given input string
+     * @param input string to test
+     * @return true if accepted, false otherwise
+     */
+    public boolean accepts(CharSequence input) {
+        int state = run(input);
+        if (state == FALLBACK) {
+            return nfa.isAccepting(next);
+        }
+        return state >= 0 && accepting[state];
+    }
+
+    @Override
+    void resizePayload(int capacity) {
+        accepting = accepting == null ? new boolean[capacity] : Arrays.copyOf(accepting, capacity);
+    }
+
+    @Override
+    void tagState(int id, long[] states) {
+        accepting[id] = nfa.isAccepting(states);
+    }
+}
@@ -5,6 +5,25 @@
  * 2. Tests methods: addState, addTransition, closure, next, deterministic, and accepts.
  * 3. Convert NFA to DFA and verify equivalence
  * 4. Build and test a standalone DFA
+ * 5. Compile DFAs and NFAs into table/bitset form and verify they agree,
+ *    then determinize lazily with a tiny cache
+ * 6. Minimize the converted DFA and check it by brute force
+ * 7. Feed input to streaming matchers piece by piece
+ * 8. Test a batch of strings in parallel
+ * 9. Compile (a|b)*abb from a regular expression
+ * 10. Save a compiled DFA to a file and match from its memory mapping
+ * 11. Copy the NFA into primitive arrays and repeat the checks
+ * 12. Match inputs against several patterns in one pass
+ * 13. Find the spans of a text that match, in each search mode
+ * 14. Test one long string split into chunks matched in parallel
+ * 15. Compile the DFA to bytecode and repeat the checks
+ * 16. Freeze the automata and match from several threads at once
+ * 17. Check language equivalence and inclusion, with shortest counterexamples
+ * 18. Count matching and conversion work (run with -Dfsa.metrics=true)
+ * 19. Convert NFAs to DFAs in parallel and compare with the sequential result
+ * 20. Optimize the NFA: remove epsilons, trim, merge bisimilar states, renumber
+ * 21. Match small NFAs bit-parallel, with the state set in one or two longs
+ * 22. Test every record of a UTF-8 buffer and file with the byte DFA
  */
 public class Main {
     // entry point of program, runs tests on NFA and DFA
@@ -17,6 +36,66 @@ public class Main {
         
         System.out.println("\n=== Testing Standalone DFA ===");
         testDFA();
+        
+        System.out.println("\n=== Testing Compiled DFA ===");
+        testCompiledDFA();
+        
+        System.out.println("\n=== Testing Compiled NFA ===");
+        testCompiledNFA();
+        
+        System.out.println("\n=== Testing Lazy DFA ===");
+        testLazyDFA();
+        
+        System.out.println("\n=== Testing DFA Minimization ===");
+        testMinimize();
+        
+        System.out.println("\n=== Testing Streaming Matchers ===");
+        testStreamMatchers();
+        
+        System.out.println("\n=== Testing Batch Matching ===");
+        testBatch();
+        
+        System.out.println("\n=== Testing Regex Compiler ===");
+        testRegex();
+        
+        System.out.println("\n=== Testing Saved DFA ===");
+        testMappedDFA();
+        
+        System.out.println("\n=== Testing Packed FSA ===");
+        testPackedFSA();
+        
+        System.out.println("\n=== Testing Multi-Pattern Matching ===");
+        testMultiMatcher();
+        
+        System.out.println("\n=== Testing Search ===");
+        testSearch();
+        
+        System.out.println("\n=== Testing Chunked Matching ===");
+        testChunked();
+        
+        System.out.println("\n=== Testing Bytecode DFA ===");
+        testBytecodeDFA();
+        
+        System.out.println("\n=== Testing Frozen FSA ===");
+        testFrozen();
+        
+        System.out.println("\n=== Testing Equivalence ===");
+        testEquivalence();
+        
+        System.out.println("\n=== Testing Metrics ===");
+        testMetrics();
+        
+        System.out.println("\n=== Testing Parallel Subset Construction ===");
+        testParallelToDFA();
+        
+        System.out.println("\n=== Testing NFA Optimizer ===");
+        testOptimizer();
+        
+        System.out.println("\n=== Testing Bit-Parallel NFA ===");
+        testBitParallel();
+        
+        System.out.println("\n=== Testing Byte DFA Records ===");
+        testRecords();
     }
     
     /*
@@ -86,6 +165,31 @@ public class Main {
         testAccepts(nfa, "abba", false);
         testAccepts(nfa, "a", false);
         testAccepts(nfa, "", false);
+        
+        // test precomputeClosures - same closures as computing each on demand, all from the cache
+        System.out.println("\nTest precomputeClosures():");
+        NFA lazy = buildExampleNFA();
+        NFA eager = buildExampleNFA();
+        eager.precomputeClosures();
+        boolean same = true;
+        for (int id = 0; id <= 10; id++) {
+            same &= getStateIds(eager.closure(eager.getStateById(id)))
+                .equals(getStateIds(lazy.closure(lazy.getStateById(id))));
+        }
+        testResult("precomputed closures match computed ones", same, true);
+        testResult("precomputed: 11 hits, 0 misses", eager.getClosureCacheHits() == 11 && eager.getClosureCacheMisses() == 0, true);
+        testResult("on demand: 0 hits, 11 misses", lazy.getClosureCacheHits() == 0 && lazy.getClosureCacheMisses() == 11, true);
+        lazy.closure(lazy.getStateById(3));
+        testResult("repeated closure(3) is a hit", lazy.getClosureCacheHits() == 1, true);
+        testResult("closure is read-only", isReadOnly(lazy.closure(lazy.getStateById(3))), true);
+        
+        // a new epsilon edge clears the cache, so closure(10) now reaches the start
+        eager.addTransition(10, 0, FSA.EPSILON);
+        testResult("closure(10) after adding 10 -ε-> 0", getStateIds(eager.closure(eager.getStateById(10))).toString(), "[0, 1, 2, 4, 7, 10]");
+        testResult("recomputed after the epsilon edge", eager.getClosureCacheMisses() == 1, true);
+        eager.addTransition(10, 8, 'c');
+        eager.closure(eager.getStateById(10));
+        testResult("symbol edge keeps the cache", eager.getClosureCacheMisses() == 1, true);
     }
     
     // tests NFA to DFA conversion
@@ -134,6 +238,54 @@ public class Main {
         testAccepts(dfa, "abba", false);
         testAccepts(dfa, "a", false);
         testAccepts(dfa, "", false);
+        
+        // test the limits, a chain this long would need 450 MB of bitsets, so it converts over packed edges
+        System.out.println("\nTest toDFA() limits:");
+        NFA chain = chainWithSink(60_000);
+        testResult("state limit", conversionError(chain, 10, 64L << 20),
+            "Subset construction exceeded 10 DFA states");
+        testResult("memory limit", conversionError(chain, 1_000_000, 1 << 20).startsWith(
+            "Subset construction exceeded 1048576 bytes ("), true);
+        testResult("example state limit", conversionError(nfa, 2, 1 << 20),
+            "Subset construction exceeded 2 DFA states");
+        testResult("example within limits", conversionError(nfa, 5, 1 << 20), "none");
+        testResult("example within limits has 5 states", nfa.toDFA(5, 1 << 20).getStates().size() == 5, true);
+        
+        // past MAX_BITSET_BYTES the packed edges are used, and the sink is pruned there too
+        DFA packed = chain.toDFA(60_000, 64L << 20);
+        testResult("60000-state chain within limits: 60000 states, 59999 transitions",
+            packed.getStates().size() == 60_000 && packed.getTransitions().size() == 59_999, true);
+        NFA small = chainWithSink(100);
+        DFA fromBits = small.toDFA();
+        DFA fromEdges = new SubsetConstruction().determinize(new PackedFSA(small));
+        testResult("bitsets and packed edges give the same DFA",
+            describeStates(fromBits).equals(describeStates(fromEdges))
+                && describeTransitions(fromBits).equals(describeTransitions(fromEdges)), true);
+    }
+    
+    // builds a chain of n states on 'a' accepting at its end, with a 'b' edge from each state to a dead sink
+    private static NFA chainWithSink(int n) {
+        NFA chain = new NFA();
+        for (int i = 0; i <= n; i++) {
+            chain.addState(i, i == 0, i == n - 1);
+        }
+        for (int i = 0; i < n; i++) {
+            if (i + 1 < n) {
+                chain.addTransition(i, i + 1, 'a');
+            }
+            chain.addTransition(i, n, 'b');
+        }
+        return chain;
+    }
+    
+    // converts with limits, returns the IllegalStateException message or "none"
+    private static String conversionError(NFA nfa, int maxStates, long maxMemoryBytes) {
+        try {
+            nfa.toDFA(maxStates, maxMemoryBytes);
+            return "none";
+        } catch (IllegalStateException e) {
+            return e.getMessage();
+        }
     }
     
     // tests DFA implementation
@@ -158,6 +310,679 @@ public class Main {
         testAccepts(dfa, "b", false);
     }
     
+    // tests compiled table form of the converted DFA
+    private static void testCompiledDFA() {
+        CompiledDFA compiled = buildExampleNFA().toDFA().compile();
+        
+        System.out.println("Compiled DFA has " + compiled.getStateCount() + " states and "
+            + compiled.getAlphabet().size() + " columns");
+        
+        System.out.println("\nTest compiled accepts:");
+        testAccepts(compiled, "abb", true);
+        testAccepts(compiled, "aabb", true);
+        testAccepts(compiled, "bbbabb", true);
+        testAccepts(compiled, "abba", false);
+        testAccepts(compiled, "abc", false);
+        testAccepts(compiled, "", false);
+    }
+    
+    // tests bitset simulation of the NFA
+    private static void testCompiledNFA() {
+        CompiledNFA compiled = buildExampleNFA().compile();
+        
+        System.out.println("Compiled NFA has " + compiled.getStateCount() + " states in "
+            + compiled.getWords() + " word(s)");
+        
+        System.out.println("\nTest compiled accepts:");
+        testAccepts(compiled, "abb", true);
+        testAccepts(compiled, "babb", true);
+        testAccepts(compiled, "aaabb", true);
+        testAccepts(compiled, "ab", false);
+        testAccepts(compiled, "abbc", false);
+        testAccepts(compiled, "", false);
+    }
+    
+    // tests the lazy DFA with caches far smaller than the DFA against toDFA()
+    private static void testLazyDFA() {
+        NFA wide = new RegexCompiler().compile("(a|b)*a(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)");
+        DFA dfa = wide.toDFA();
+        System.out.println("(a|b)*a(a|b){8} has " + dfa.getStates().size() + " DFA states");
+        
+        java.util.Random random = new java.util.Random(1);
+        for (int maxStates : new int[] { 2, 3, 4 }) {
+            LazyDFA lazy = wide.toLazyDFA(maxStates);
+            int mismatches = 0;
+            for (int i = 0; i < 500; i++) {
+                StringBuilder sb = new StringBuilder();
+                int len = random.nextInt(30);
+                for (int j = 0; j < len; j++) {
+                    sb.append("abbc".charAt(random.nextInt(j == len - 1 ? 4 : 2))); // some end on c
+                }
+                if (lazy.accepts(sb) != dfa.accepts(sb.toString())) {
+                    mismatches++;
+                }
+            }
+            testResult("maxStates=" + maxStates + " agrees with toDFA() on 500 strings", mismatches == 0, true);
+            testResult("maxStates=" + maxStates + " cache cleared and kept small",
+                lazy.getCacheClears() > 0 && lazy.getCachedStates() <= maxStates, true);
+            testResult("maxStates=" + maxStates + " thrashed into NFA simulation", lazy.getFallbacks() > 0, true);
+        }
+        
+        // a+b+ fits in 2 states only between clears; each clear here is paid for by 100 chars
+        NFA ab = new NFA();
+        ab.addState(0, true, false);
+        ab.addState(1, false, false);
+        ab.addState(2, false, true);
+        ab.addTransition(0, 1, 'a');
+        ab.addTransition(1, 1, 'a');
+        ab.addTransition(1, 2, 'b');
+        ab.addTransition(2, 2, 'b');
+        String longRun = "a" + "b".repeat(100);
+        for (String end : new String[] { "a", "c" }) { // dies on a dead transition, or on a symbol outside the alphabet
+            LazyDFA lazy = ab.toLazyDFA(2);
+            testResult("a b^100 " + end + " rejected", lazy.accepts(longRun + end), false);
+            testResult("then ab accepted", lazy.accepts("ab"), true);
+            testResult("2 clears, no fallback after a rejected input ending in " + end,
+                lazy.getCacheClears() == 2 && lazy.getFallbacks() == 0, true);
+        }
+    }
+    
+    // tests Hopcroft minimization against the NFA on every short string
+    private static void testMinimize() {
+        NFA nfa = buildExampleNFA();
+        DFA dfa = nfa.toDFA();
+        DFA minimal = dfa.minimize();
+        
+        // (a|b)*abb needs one state per length of matched suffix of "abb"
+        System.out.println("Test minimize():");
+        System.out.println("Expected: 4 states");
+        System.out.println("Actual:   " + minimal.getStates().size() + " states (from " + dfa.getStates().size() + ")");
+        
+        System.out.println("\nTest minimized DFA against NFA on all strings over {a,b,c} up to length 7:");
+        int checked = 0;
+        int mismatches = 0;
+        java.util.List<String> inputs = new java.util.ArrayList<>();
+        inputs.add("");
+        for (int i = 0; i < inputs.size(); i++) {
+            String input = inputs.get(i);
+            checked++;
+            if (minimal.accepts(input) != nfa.accepts(input)) {
+                mismatches++;
+            }
+            if (input.length() < 7) {
+                inputs.add(input + "a");
+                inputs.add(input + "b");
+                inputs.add(input + "c");
+            }
+        }
+        String result = (mismatches == 0) ? "✓" : "✗";
+        System.out.println(result + " " + checked + " strings checked, " + mismatches + " mismatches");
+        
+        // empty language: the start loops and the accept state is unreachable
+        System.out.println("\nTest minimize() of an empty language:");
+        NFA empty = new NFA();
+        empty.addState(0, true, false);
+        empty.addState(1, false, true);
+        empty.addTransition(0, 0, 'a');
+        DFA emptyDFA = empty.toDFA();
+        DFA emptyMinimal = emptyDFA.minimize();
+        testResult("toDFA() has 1 state", emptyDFA.getStates().size() == 1, true);
+        testResult("minimize() has 1 state", emptyMinimal.getStates().size() == 1, true);
+        testResult("minimize() start is not accepting", emptyMinimal.getStartState() != null
+            && !emptyMinimal.getStartState().isAccept(), true);
+        testAccepts(emptyMinimal, "", false);
+        testAccepts(emptyMinimal, "aa", false);
+    }
+    
+    // tests streaming matchers fed in pieces and from readers
+    private static void testStreamMatchers() {
+        NFA nfa = buildExampleNFA();
+        StreamMatcher[] matchers = { nfa.matcher(), nfa.toDFA().matcher() };
+        String[] names = { "NFA", "DFA" };
+        
+        for (int i = 0; i < matchers.length; i++) {
+            StreamMatcher m = matchers[i];
+            System.out.println("\nTest " + names[i] + " matcher:");
+            
+            // "bab" + "b" fed separately should accept
+            m.reset();
+            m.feed("bab");
+            m.feed('b');
+            testResult("feed(\"bab\") + feed('b') accepts", m.isAccepting(), true);
+            
+            // an unknown symbol kills the match for good
+            m.feed(new char[] { 'x', 'a', 'b', 'b' }, 0, 4);
+            testResult("dead after 'x'", m.isDead(), true);
+            testResult("not accepting after 'x'", m.isAccepting(), false);
+            
+            try {
+                testResult("Reader \"aababb\" accepts",
+                    StreamMatchers.matches(m, new java.io.StringReader("aababb")), true);
+            } catch (java.io.IOException e) {
+                testResult("Reader threw " + e, false, true);
+            }
+            testResult("CharBuffer \"abba\" rejects",
+                StreamMatchers.matches(m, java.nio.CharBuffer.wrap("abba")), false);
+        }
+    }
+    
+    // tests parallel batch matching against one accepts() call per string
+    private static void testBatch() {
+        NFA nfa = buildExampleNFA();
+        java.util.List<String> inputs = java.util.List.of("abb", "aabb", "ab", "", "bbbabb", "abba", "babb");
+        
+        boolean[] nfaResults = nfa.acceptsAll(inputs);
+        java.util.BitSet dfaResults = nfa.toDFA().acceptsAllBits(inputs);
+        for (int i = 0; i < inputs.size(); i++) {
+            boolean expected = nfa.accepts(inputs.get(i));
+            testResult("batch '" + inputs.get(i) + "' NFA", nfaResults[i], expected);
+            testResult("batch '" + inputs.get(i) + "' DFA", dfaResults.get(i), expected);
+        }
+    }
+    
+    // tests Thompson construction from a pattern against the hand-built NFA
+    private static void testRegex() {
+        NFA nfa = new RegexCompiler().compile("(a|b)*abb");
+        System.out.println("Regex NFA constructed with " + nfa.getStates().size() + " states");
+        
+        System.out.println("\nTest accepts():");
+        testAccepts(nfa, "abb", true);
+        testAccepts(nfa, "babb", true);
+        testAccepts(nfa, "bbbabb", true);
+        testAccepts(nfa, "abba", false);
+        testAccepts(nfa, "", false);
+        
+        System.out.println("\nTest classes and repetition [a-c]+x?:");
+        CompiledNFA classes = new RegexCompiler().compileToBitsets("[a-c]+x?");
+        testAccepts(classes, "cab", true);
+        testAccepts(classes, "abcx", true);
+        testAccepts(classes, "x", false);
+        testAccepts(classes, "abd", false);
+        
+        System.out.println("\nTest symbol equivalence classes [a-z]+[0-9]:");
+        CompiledDFA table = new RegexCompiler().compile("[a-z]+[0-9]").toDFA().compile();
+        System.out.println("Alphabet of " + table.getAlphabet().symbolCount() + " symbols in "
+            + table.getAlphabet().size() + " columns");
+        testResult("one column per class", table.getAlphabet().size() == 2, true);
+        testAccepts(table, "abc7", true);
+        testAccepts(table, "z0", true);
+        testAccepts(table, "7", false);
+    }
+    
+    // saves the converted DFA, maps it back and checks that corruption is caught
+    private static void testMappedDFA() {
+        try {
+            java.nio.file.Path file = java.nio.file.Files.createTempFile("example", ".dfa");
+            try {
+                CompiledDFA compiled = buildExampleNFA().toDFA().compile();
+                compiled.save(file);
+                MappedDFA mapped = MappedDFA.load(file);
+                System.out.println("Saved " + mapped.getStateCount() + " states in "
+                    + java.nio.file.Files.size(file) + " bytes");
+                
+                System.out.println("\nTest accepts() from the mapping:");
+                testAccepts(mapped, "abb", true);
+                testAccepts(mapped, "aabb", true);
+                testAccepts(mapped, "abba", false);
+                testAccepts(mapped, "abc", false);
+                testAccepts(mapped, "", false);
+                
+                System.out.println("\nTest corrupted file:");
+                byte[] bytes = java.nio.file.Files.readAllBytes(file);
+                bytes[bytes.length - 8] ^= 1; // flip a bit in the transition table
+                java.nio.file.Files.write(file, bytes);
+                boolean rejected = false;
+                try {
+                    MappedDFA.load(file);
+                } catch (java.io.IOException e) {
+                    rejected = true;
+                }
+                testResult("corrupt file rejected", rejected, true);
+            } finally {
+                java.nio.file.Files.delete(file);
+            }
+        } catch (java.io.IOException e) {
+            testResult("saved DFA I/O: " + e.getMessage(), false, true);
+        }
+    }
+    
+    // tests the struct-of-arrays copy of the (a|b)*abb NFA
+    private static void testPackedFSA() {
+        NFA nfa = buildExampleNFA();
+        PackedFSA packed = new PackedFSA(nfa);
+        System.out.println("Packed FSA with " + packed.getStateCount() + " states and "
+            + packed.getEdgeCount() + " edges");
+        
+        System.out.println("\nTest closure() and next():");
+        testResult("closure(0) size", packed.closure(0).length == nfa.closure(nfa.getStartState()).size(), true);
+        testResult("next(0, 'a') size", packed.next(0, 'a').length == nfa.next(nfa.getStartState(), 'a').size(), true);
+        testResult("deterministic()", packed.deterministic(), false);
+        
+        System.out.println("\nTest accepts() and toDFA():");
+        DFA dfa = packed.toDFA();
+        for (String input : new String[] { "abb", "aabb", "babb", "abba", "ab", "" }) {
+            testResult("packed '" + input + "'", packed.accepts(input), nfa.accepts(input));
+            testResult("packed DFA '" + input + "'", dfa.accepts(input), nfa.accepts(input));
+        }
+        testResult("packed DFA deterministic()", new PackedFSA(dfa).deterministic(), true);
+    }
+    
+    // tests one pass over (a|b)*abb, a+b* and a standalone DFA for "ab"
+    private static void testMultiMatcher() {
+        DFA ab = new DFA();
+        ab.addState(0, true, false);
+        ab.addState(1, false, false);
+        ab.addState(2, false, true);
+        ab.addTransition(0, 1, 'a');
+        ab.addTransition(1, 2, 'b');
+        java.util.List<FSA> patterns = java.util.List.of(buildExampleNFA(), new RegexCompiler().compile("a+b*"), ab);
+        MultiMatcher multi = new MultiMatcher(patterns);
+        
+        System.out.println("Test matchIds():");
+        testResult("'abb' matches {0, 1}", java.util.Arrays.equals(multi.matchIds("abb"), new int[] { 0, 1 }), true);
+        testResult("'ab' matches {1, 2}", java.util.Arrays.equals(multi.matchIds("ab"), new int[] { 1, 2 }), true);
+        testResult("'aabb' matches {0, 1}", java.util.Arrays.equals(multi.matchIds("aabb"), new int[] { 0, 1 }), true);
+        testResult("'ba' matches nothing", multi.matchIds("ba").length == 0, true);
+        testResult("'babb' bits", multi.matches("babb").equals(java.util.BitSet.valueOf(new long[] { 1 })), true);
+
+        System.out.println("\nTest a 2-state cache:");
+        MultiMatcher small = new MultiMatcher(patterns, 2);
+        boolean same = true;
+        for (String input : new String[] { "abb", "ab", "aabb", "ba", "babb", "abababb", "aaaab", "abba" }) {
+            same &= java.util.Arrays.equals(small.matchIds(input), multi.matchIds(input));
+        }
+        testResult("same IDs as a 4096-state cache", same, true);
+        testResult("cache cleared", small.getCacheClears() > 0 && small.getCachedStates() <= 2, true);
+        MultiMatcher aPlusBPlus = new MultiMatcher(java.util.List.of(new RegexCompiler().compile("a+b+")), 2);
+        testResult("a b^100 a matches nothing", aPlusBPlus.matchesAny("a" + "b".repeat(100) + "a"), false);
+        testResult("then ab matches", aPlusBPlus.matchesAny("ab"), true);
+        testResult("2 clears, no fallback after a rejected input",
+            aPlusBPlus.getCacheClears() == 2 && aPlusBPlus.getFallbacks() == 0, true);
+    }
+    
+    // tests the three search modes of a+b* on "xaabbab"
+    private static void testSearch() {
+        NFA pattern = new RegexCompiler().compile("a+b*");
+        String text = "xaabbab";
+        
+        System.out.println("Test LEFTMOST_FIRST:");
+        testResult("spans [1,2) [2,3) [5,6)", spans(pattern.searcher(Searcher.Mode.LEFTMOST_FIRST), text), "[1,2)[2,3)[5,6)");
+        
+        System.out.println("\nTest LEFTMOST_LONGEST:");
+        testResult("spans [1,5) [5,7)", spans(pattern.searcher(Searcher.Mode.LEFTMOST_LONGEST), text), "[1,5)[5,7)");
+        
+        System.out.println("\nTest ALL_OVERLAPPING:");
+        testResult("every end with its leftmost start", spans(pattern.searcher(Searcher.Mode.ALL_OVERLAPPING), text),
+            "[1,2)[1,3)[1,4)[1,5)[5,6)[5,7)");
+        
+        System.out.println("\nTest Cursor:");
+        Searcher.Cursor cursor = pattern.searcher(Searcher.Mode.LEFTMOST_LONGEST).cursor("bbb");
+        testResult("no match in 'bbb'", cursor.find(), false);
+        cursor.reset("ab");
+        testResult("reset finds [0,2)", cursor.find() && cursor.start() == 0 && cursor.end() == 2, true);
+    }
+    
+    // tests chunked matching of long strings against a sequential accepts() call
+    private static void testChunked() {
+        CompiledDFA dfa = buildExampleNFA().toDFA().compile();
+        ByteDFA bytes = new ByteDFA(dfa);
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        String prefix = "ab".repeat(200_000);
+        for (String input : new String[] { prefix + "abb", prefix + "aba", prefix + "abc" + prefix + "abb", "abb" }) {
+            String label = "'" + input.substring(Math.max(0, input.length() - 6)) + "' of " + input.length() + " chars";
+            boolean expected = dfa.accepts(input);
+            testResult(label, ChunkedMatcher.accepts(dfa, input, pool), expected);
+            byte[] utf8 = input.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            testResult(label + " as bytes", ChunkedMatcher.accepts(bytes, java.nio.ByteBuffer.wrap(utf8), 0, utf8.length, pool), expected);
+        }
+        pool.shutdown();
+    }
+    
+    // tests the DFA compiled to bytecode against the same strings as the table form
+    private static void testBytecodeDFA() {
+        BytecodeDFA dfa = buildExampleNFA().toDFA().compileBytecode();
+        System.out.println("Generated " + dfa.getCodeBytes() + " bytes of bytecode");
+        
+        System.out.println("\nTest accepts():");
+        testAccepts(dfa, "abb", true);
+        testAccepts(dfa, "aabb", true);
+        testAccepts(dfa, "babb", true);
+        testAccepts(dfa, "ab", false);
+        testAccepts(dfa, "abba", false);
+        testAccepts(dfa, "abc", false);
+        testAccepts(dfa, "", false);
+        
+        System.out.println("\nTest matcher():");
+        StreamMatcher matcher = dfa.matcher();
+        matcher.feed("aab");
+        matcher.feed('b');
+        testResult("streamed 'aabb'", matcher.isAccepting(), true);
+    }
+    
+    // tests frozen snapshots: read-only, detached from their source, shared by threads
+    private static void testFrozen() {
+        NFA nfa = buildExampleNFA();
+        FrozenFSA frozenNFA = nfa.freeze();
+        FrozenFSA frozenDFA = nfa.toDFA().freeze();
+        
+        System.out.println("\nTest accepts():");
+        for (String input : new String[] { "abb", "aabb", "ab", "abba", "" }) {
+            testAccepts(frozenNFA, input, nfa.accepts(input));
+            testAccepts(frozenDFA, input, nfa.accepts(input));
+        }
+        testResult("NFA snapshot deterministic", frozenNFA.isDeterministic(), false);
+        testResult("DFA snapshot deterministic", frozenDFA.isDeterministic(), true);
+        testResult("state 2 has one edge out", frozenNFA.getTransitionsFrom(frozenNFA.getStateById(2)).size() == 1, true);
+        
+        System.out.println("\nTest read-only views:");
+        testResult("snapshot states read-only", isReadOnly(frozenNFA.getStates()), true);
+        testResult("FSA states read-only", isReadOnly(nfa.getStates()), true);
+        nfa.addState(11, false, true);
+        nfa.addTransition(10, 11, 'c');
+        testResult("source changed, 'abbc' accepted", nfa.accepts("abbc"), true);
+        testResult("snapshot unchanged, 'abbc' rejected", frozenNFA.accepts("abbc"), false);
+        testResult("snapshot still has 11 states", frozenNFA.getStates().size() == 11, true);
+        
+        System.out.println("\nTest shared between threads:");
+        String[] inputs = { "abb", "babb", "ab".repeat(50) + "b", "abab", "abbb" };
+        java.util.concurrent.ExecutorService threads = java.util.concurrent.Executors.newFixedThreadPool(4);
+        java.util.List<java.util.concurrent.Future<Integer>> results = new java.util.ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            results.add(threads.submit(() -> {
+                int mismatches = 0;
+                for (int i = 0; i < 20_000; i++) {
+                    String input = inputs[i % inputs.length];
+                    boolean expected = i % inputs.length < 3;
+                    if (frozenNFA.accepts(input) != expected || frozenDFA.accepts(input) != expected) {
+                        mismatches++;
+                    }
+                }
+                return mismatches;
+            }));
+        }
+        int mismatches = 0;
+        try {
+            for (java.util.concurrent.Future<Integer> result : results) {
+                mismatches += result.get();
+            }
+        } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+            mismatches = -1;
+        }
+        threads.shutdown();
+        testResult("4 threads x 20000 matches agree", mismatches == 0, true);
+    }
+    
+    // tests equivalence and inclusion between NFAs, DFAs and regex-built automata
+    private static void testEquivalence() {
+        NFA nfa = buildExampleNFA();
+        DFA dfa = nfa.toDFA();
+        DFA minimal = dfa.minimize();
+        RegexCompiler regex = new RegexCompiler();
+        
+        System.out.println("Test equivalent():");
+        testResult("NFA == toDFA()", nfa.equivalentTo(dfa), true);
+        testResult("toDFA() == minimize()", dfa.equivalentTo(minimal), true);
+        testResult("NFA == regex (a|b)*abb", nfa.equivalentTo(regex.compile("(a|b)*abb")), true);
+        testResult("NFA == regex (a|b)*ab", nfa.equivalentTo(regex.compile("(a|b)*ab")), false);
+        
+        System.out.println("\nTest counterexample():");
+        testResult("(a|b)*abb vs (a|b)*ab", String.valueOf(Equivalence.counterexample(nfa, regex.compile("(a|b)*ab"))), "ab");
+        testResult("DFAs (a|b)*abb vs (a|b)*ab", String.valueOf(Equivalence.counterexample(minimal, regex.compile("(a|b)*ab").toDFA())), "ab");
+        testResult("(a|b)*abb vs itself", String.valueOf(Equivalence.counterexample(dfa, minimal)), "null");
+        
+        System.out.println("\nTest inclusion:");
+        testResult("(a|b)*abb in (a|b)*", nfa.includedIn(regex.compile("(a|b)*")), true);
+        testResult("(a|b)* in (a|b)*abb", regex.compile("(a|b)*").includedIn(nfa), false);
+        testResult("shortest (a|b)* not in (a|b)*abb", "'" + Equivalence.inclusionCounterexample(regex.compile("(a|b)*"), nfa) + "'", "''");
+        testResult("shortest a*b not in (a|b)*abb", String.valueOf(Equivalence.inclusionCounterexample(regex.compile("a*b").toDFA(), minimal)), "b");
+    }
+    
+    // tests the metrics counters, which only count when enabled on the command line
+    private static void testMetrics() {
+        NFA nfa = buildExampleNFA();
+        Metrics.reset();
+        nfa.accepts("aabb");
+        nfa.accepts("abcabb"); // no state left after 'c'
+        DFA dfa = nfa.toDFA();
+        dfa.accepts("abb");
+        dfa.accepts("abcb"); // no transition on 'c'
+        Metrics.Snapshot snapshot = Metrics.snapshot();
+        System.out.println("Metrics " + (Metrics.ENABLED ? "on: " : "off: ") + snapshot);
+        
+        if (!Metrics.ENABLED) {
+            testResult("nothing counted while off", snapshot.getCharsProcessed() == 0 && snapshot.getConversions() == 0, true);
+            return;
+        }
+        testResult("13 chars processed", snapshot.getCharsProcessed() == 13, true);
+        testResult("2 dead-state exits", snapshot.getDeadStateExits() == 2, true);
+        testResult("1 conversion", snapshot.getConversions() == 1, true);
+        testResult("DFA states counted", snapshot.getDfaStatesCreated() == dfa.getStates().size(), true);
+        testResult("closures computed", snapshot.getClosuresComputed() > 0, true);
+        testResult("active states seen", snapshot.getMaxActiveStates() > 0 && snapshot.getAverageActiveStates() > 0, true);
+        
+        // a missing transition on the last character ends the input anyway, so neither DFA engine counts an exit
+        CompiledDFA compiled = dfa.compile();
+        Metrics.reset();
+        dfa.accepts("abc");
+        compiled.accepts("abc");
+        Metrics.Snapshot lastChar = Metrics.snapshot();
+        testResult("no dead exit on the last character, 6 chars", lastChar.getDeadStateExits() == 0
+            && lastChar.getCharsProcessed() == 6, true);
+    }
+    
+    // tests that the parallel conversion numbers its states exactly like toDFA()
+    private static void testParallelToDFA() {
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        NFA example = buildExampleNFA();
+        NFA wide = new RegexCompiler().compile("(a|b)*a(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)");
+        for (NFA nfa : new NFA[] { example, wide }) {
+            DFA sequential = nfa.toDFA();
+            DFA parallel = nfa.toDFA(pool);
+            String label = sequential.getStates().size() + "-state DFA";
+            testResult(label + " same states", describeStates(parallel).equals(describeStates(sequential)), true);
+            testResult(label + " same transitions", describeTransitions(parallel).equals(describeTransitions(sequential)), true);
+        }
+        
+        // past MAX_BITSET_BYTES both take the packed edges instead of quadratic bitsets
+        NFA chain = chainWithSink(30_000);
+        DFA sequential = chain.toDFA();
+        DFA parallel = chain.toDFA(pool);
+        testResult("30000-state chain: 30000 states, 29999 transitions",
+            parallel.getStates().size() == 30_000 && parallel.getTransitions().size() == 29_999, true);
+        testResult("30000-state chain same as toDFA()", describeStates(parallel).equals(describeStates(sequential))
+            && describeTransitions(parallel).equals(describeTransitions(sequential)), true);
+        pool.shutdown();
+    }
+    
+    // tests that each optimizer stage shrinks the example NFA without changing its language
+    private static void testOptimizer() {
+        NFA nfa = buildExampleNFA();
+        NFAOptimizer optimizer = new NFAOptimizer();
+        NFA optimized = optimizer.optimize(nfa);
+        System.out.print(optimizer.getReport());
+        
+        testResult("same language", optimized.equivalentTo(nfa), true);
+        testResult("no epsilon transitions", optimized.getTransitions().stream().noneMatch(Transition::isEpsilon), true);
+        testResult("fewer states", optimizer.getReport().getStatesAfter() < optimizer.getReport().getStatesBefore(), true);
+        testResult("start renumbered to 0", optimized.getStartState().getId() == 0, true);
+        testAccepts(optimized, "aabb", true);
+        testAccepts(optimized, "abab", false);
+        
+        NFA epsilonFree = new NFAOptimizer().setTrim(false).setMergeBisimilar(false).setRenumber(false).optimize(nfa);
+        testResult("epsilon removal alone keeps every state", epsilonFree.getStates().size() == 11, true);
+        testResult("epsilon removal alone, same language", epsilonFree.equivalentTo(nfa), true);
+        
+        // a dead branch and an unreachable state are trimmed away
+        NFA untrimmed = buildExampleNFA();
+        untrimmed.addState(11, false, false);
+        untrimmed.addState(12, false, true);
+        untrimmed.addTransition(0, 11, 'c');
+        untrimmed.addTransition(12, 10, 'a');
+        NFA trimmed = new NFAOptimizer().setMergeBisimilar(false).optimize(untrimmed);
+        testResult("dead and unreachable states dropped", trimmed.getStates().size() == 6, true);
+        testResult("trimmed, same language", trimmed.equivalentTo(untrimmed), true);
+        
+        NFA empty = new NFA();
+        empty.addState(0, true, false);
+        empty.addState(1, false, true);
+        testResult("empty language keeps a start state", empty.optimize().getStates().size() == 1, true);
+    }
+    
+    // tests the bit-parallel engine on one- and two-word automata against the bitset simulation
+    private static void testBitParallel() {
+        NFA example = buildExampleNFA();
+        BitParallelNFA small = example.compile().getBitParallel();
+        System.out.println("(a|b)*abb: " + small.getPositionCount() + " positions");
+        testAccepts(small, "abb", true);
+        testAccepts(small, "babaabb", true);
+        testAccepts(small, "abab", false);
+        testAccepts(small, "abcabb", false);
+        testAccepts(small, "", false);
+        
+        // the 2^9 DFA states of this pattern are one position per symbol
+        NFA wide = new RegexCompiler().compile("(a|b)*a(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)");
+        BitParallelNFA bits = wide.compile().getBitParallel();
+        testResult("(a|b)*a(a|b){8} has 20 positions", bits.getPositionCount() == 20, true);
+        testAccepts(bits, "bbbabbbbbbbb", true);
+        testAccepts(bits, "bbbbabbbbbbb", false);
+        
+        // a chain of 100 symbols needs two words
+        StringBuilder chain = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            chain.append((char) ('a' + i % 3));
+        }
+        BitParallelNFA twoWords = new RegexCompiler().compile("(" + chain + ")*").compile().getBitParallel();
+        testResult("chain of 100 needs two words", twoWords.getPositionCount() > 64, true);
+        testResult("chain twice accepted", twoWords.accepts(chain.toString() + chain), true);
+        testResult("chain without its first symbol rejected", twoWords.accepts(chain.substring(1)), false);
+        StreamMatcher matcher = twoWords.matcher();
+        matcher.feed(chain);
+        testResult("two-word matcher accepts", matcher.isAccepting(), true);
+        
+        // anything past 128 positions is left to the bitset simulation
+        CompiledNFA tooLarge = new RegexCompiler().compile(chain.toString() + chain).compile();
+        testResult("200 positions left to the bitsets", tooLarge.getBitParallel() == null, true);
+        testResult("chain twice accepted by the bitsets", tooLarge.accepts(chain.toString() + chain), true);
+
+        System.out.println("\nTest NFA.accepts() on the compiled copy:");
+        NFA routed = buildExampleNFA();
+        testResult("first query runs on the sets", routed.accepts("ab") || routed.isCompiled(), false);
+        testResult("second query compiles", !routed.accepts("ab") && routed.isCompiled(), true);
+        routed.addState(11, false, true);
+        testResult("addState drops the copy", routed.isCompiled(), false);
+        routed.accepts("ab");
+        routed.accepts("ab");
+        routed.addTransition(8, 11, 'b'); // (a|b)*ab is accepted now
+        testResult("addTransition drops the copy", routed.isCompiled(), false);
+        testAccepts(routed, "ab", true);
+        testAccepts(routed, "bab", true);
+        testAccepts(routed, "aba", false);
+        testResult("compiled again", routed.isCompiled(), true);
+
+        // 5000 states would take more than NFA.MAX_COMPILED_BYTES of bitsets
+        NFA longChain = new NFA();
+        longChain.addState(0, true, false);
+        for (int i = 1; i <= 5000; i++) {
+            longChain.addState(i, false, i == 5000);
+            longChain.addTransition(i - 1, i, 'a');
+        }
+        String a5000 = "a".repeat(5000);
+        testResult("5000 a's accepted twice", longChain.accepts(a5000) && longChain.accepts(a5000), true);
+        testResult("5000 states stay on the sets", longChain.isCompiled(), false);
+    }
+    
+    // tests forEachRecord() of (a|b|é)*abb on a buffer and a file, with an empty record,
+    // a two-byte char and a last record without a delimiter
+    private static void testRecords() {
+        ByteDFA bytes = new ByteDFA(new RegexCompiler().compile("(a|b|é)*abb").toDFA().compile());
+        byte[] utf8 = "abb\n\néabb\nabba\naabb".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        String expected = "0[0,3)true 1[4,4)false 2[5,10)true 3[11,15)false 4[16,20)true ";
+        
+        StringBuilder records = new StringBuilder();
+        ByteDFA.RecordListener listener = (index, start, end, accepted) ->
+            records.append(index).append('[').append(start).append(',').append(end).append(')').append(accepted).append(' ');
+        long count = bytes.forEachRecord(java.nio.ByteBuffer.wrap(utf8), (byte) '\n', listener);
+        testResult("buffer records", records.toString(), expected);
+        testResult("buffer record count", count == 5, true);
+        
+        try {
+            java.nio.file.Path file = java.nio.file.Files.createTempFile("records", ".txt");
+            try {
+                java.nio.file.Files.write(file, utf8);
+                records.setLength(0);
+                count = bytes.forEachRecord(file, (byte) '\n', listener);
+                testResult("file records", records.toString(), expected);
+                testResult("file record count", count == 5, true);
+            } finally {
+                java.nio.file.Files.delete(file);
+            }
+        } catch (java.io.IOException e) {
+            testResult("record file I/O: " + e.getMessage(), false, true);
+        }
+    }
+    
+    // lists every state as "id", "id*" if accepting, in ID order
+    private static String describeStates(FSA fsa) {
+        java.util.Set<String> states = new java.util.TreeSet<>();
+        for (State s : fsa.getStates()) {
+            states.add(s.getId() + (s.isAccept() ? "*" : ""));
+        }
+        return states.toString();
+    }
+    
+    // lists every transition as "from --symbol-->to", sorted
+    private static String describeTransitions(FSA fsa) {
+        java.util.Set<String> transitions = new java.util.TreeSet<>();
+        for (Transition t : fsa.getTransitions()) {
+            transitions.add(t.toString());
+        }
+        return transitions.toString();
+    }
+    
+    // checks that a set rejects changes
+    private static boolean isReadOnly(java.util.Set<State> states) {
+        try {
+            states.clear();
+            return false;
+        } catch (UnsupportedOperationException e) {
+            return true;
+        }
+    }
+    
+    // collects the spans a searcher reports as "[start,end)" pairs
+    private static String spans(Searcher searcher, String text) {
+        StringBuilder sb = new StringBuilder();
+        searcher.search(text, (start, end) -> {
+            sb.append('[').append(start).append(',').append(end).append(')');
+            return true;
+        });
+        return sb.toString();
+    }
+    
+    // builds the NFA for (a|b)*abb used in the tests above
+    private static NFA buildExampleNFA() {
+        NFA nfa = new NFA();
+        
+        for (int i = 0; i <= 10; i++) {
+            nfa.addState(i, i == 0, i == 10);
+        }
+        
+        nfa.addTransition(0, 1, FSA.EPSILON);
+        nfa.addTransition(0, 7, FSA.EPSILON);
+        nfa.addTransition(1, 2, FSA.EPSILON);
+        nfa.addTransition(1, 4, FSA.EPSILON);
+        nfa.addTransition(2, 3, 'a');
+        nfa.addTransition(4, 5, 'b');
+        nfa.addTransition(3, 6, FSA.EPSILON);
+        nfa.addTransition(5, 6, FSA.EPSILON);
+        nfa.addTransition(6, 1, FSA.EPSILON);
+        nfa.addTransition(6, 7, FSA.EPSILON);
+        nfa.addTransition(7, 8, 'a');
+        nfa.addTransition(8, 9, 'b');
+        nfa.addTransition(9, 10, 'b');
+        return nfa;
+    }
+    
     // helper method to test accepts and print result
     private static void testAccepts(FSA fsa, String input, boolean expected) {
         boolean actual = fsa.accepts(input);
@@ -165,6 +990,25 @@ public class Main {
         System.out.println(result + " '" + input + "' -> " + actual + " (expected: " + expected + ")");
     }
     
+    // helper method to test compiled accepts and print result
+    private static void testAccepts(Recognizer recognizer, String input, boolean expected) {
+        boolean actual = recognizer.accepts(input);
+        String result = (actual == expected) ? "✓" : "✗";
+        System.out.println(result + " '" + input + "' -> " + actual + " (expected: " + expected + ")");
+    }
+    
+    // helper method to check a labelled result and print it
+    private static void testResult(String label, boolean actual, boolean expected) {
+        String result = (actual == expected) ? "✓" : "✗";
+        System.out.println(result + " " + label + " -> " + actual + " (expected: " + expected + ")");
+    }
+    
+    // helper method to check a labelled text result and print it
+    private static void testResult(String label, String actual, String expected) {
+        String result = actual.equals(expected) ? "✓" : "✗";
+        System.out.println(result + " " + label + " -> " + actual + " (expected: " + expected + ")");
+    }
+    
     // helper method to get state IDs from set of states
     private static java.util.Set<Integer> getStateIds(java.util.Set<State> states) {
         java.util.Set<Integer> ids = new java.util.TreeSet<>();
@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/*
+ * Compiled DFA saved in a compact binary file and matched straight from a
+ * memory mapping of it, so a process can start without rebuilding State,
+ * Transition or HashMap objects or rerunning subset construction.
+ *
+ * File layout, all little-endian:
+ *   int   magic 'FSAD'
+ *   int   format version
+ *   int   state count n
+ *   int   column count w (alphabet equivalence classes)
+ *   int   symbol count m
+ *   int   start state, -1 if nothing is accepted
+ *   int   w + 1 column starts, index of the first symbol of each column then m
+ *   char  m symbols grouped by column, padded to a multiple of 4 bytes
+ *   byte  accept bitmap, bit s set if state s accepts, padded to a multiple of 4 bytes
+ *   int   n * w transition table, (state * w + column) -> next state or -1
+ *   int   CRC32 of every byte before it
+ *
+ * Loading checks the header, size, checksum and that every transition is in
+ * range, then only keeps the Alphabet's lookup table on the heap. The mapping is read-only,
+ * so one instance can be shared between threads.
+ */
+public class MappedDFA implements Recognizer {
+    public static final int DEAD = CompiledDFA.DEAD;
+    public static final int MAGIC = 0x44415346; // "FSAD" read as a little-endian int
+    public static final int VERSION = 2; // 2 added alphabet equivalence classes
+
+    private static final int HEADER_BYTES = 24;
+    private static final int CHUNK_BYTES = 1 << 16; // write buffer size
+
+    private final Alphabet alphabet;
+    private final int width;
+    private final int stateCount;
+    private final int startState;
+    private final ByteBuffer accepting; // accept bitmap inside the mapping
+    private final IntBuffer table;      // transition table inside the mapping
+
+    // wraps a mapping that load has already checked
+    private MappedDFA(ByteBuffer file, int stateCount, int startState, Alphabet alphabet) {
+        this.stateCount = stateCount;
+        this.width = alphabet.size();
+        this.startState = startState;
+        this.alphabet = alphabet;
+        int m = alphabet.symbolCount();
+        int acceptOffset = acceptOffset(width, m);
+        int tableOffset = tableOffset(stateCount, width, m);
+        this.accepting = file.slice(acceptOffset, tableOffset - acceptOffset);
+        this.table = file.slice(tableOffset, stateCount * width * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * Writes a compiled DFA to a file, replacing anything already there
+     * @param dfa DFA to save
+     * @param file file to write
+     * @throws IOException if the file cannot be written
+     * @throws IllegalArgumentException if the table does not fit in a 2 GB file
+     */
+    public static void write(CompiledDFA dfa, Path file) throws IOException {
+        int n = dfa.getStateCount();
+        Alphabet alphabet = dfa.getAlphabet();
+        int w = alphabet.size();
+        int m = alphabet.symbolCount();
+        if (fileSize(n, w, m) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("DFA with " + n + " states and " + w
+                + " columns is too large to save");
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Output out = new Output(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(n);
+            out.putInt(w);
+            out.putInt(m);
+            out.putInt(dfa.getStartState());
+            for (int c = 0; c <= w; c++) {
+                out.putInt(alphabet.columnStart(c));
+            }
+            for (int i = 0; i < m; i++) {
+                out.putChar(alphabet.symbol(i));
+            }
+            out.pad();
+            for (int s = 0; s < n; s += 8) {
+                int bits = 0;
+                for (int b = 0; b < 8 && s + b < n; b++) {
+                    if (dfa.isAccepting(s + b)) {
+                        bits |= 1 << b;
+                    }
+                }
+                out.put((byte) bits);
+            }
+            out.pad();
+            for (int s = 0; s < n; s++) {
+                for (int c = 0; c < w; c++) {
+                    out.putInt(dfa.step(s, alphabet.symbolAt(c)));
+                }
+            }
+            out.finish();
+        }
+    }
+
+    /**
+     * Maps a saved DFA read-only and checks it
+     * @param file file written by write
+     * @return DFA that matches from the mapping
+     * @throws IOException if the file cannot be read, has another version or is corrupt
+     */
+    public static MappedDFA load(Path file) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + 4 || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a saved DFA, size " + size + ": " + file);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size); // stays valid after close
+        }
+        ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a saved DFA, bad magic number: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported DFA file version " + buffer.getInt(4) + ": " + file);
+        }
+        int n = buffer.getInt(8);
+        int w = buffer.getInt(12);
+        int m = buffer.getInt(16);
+        int start = buffer.getInt(20);
+        if (n < 0 || w < 0 || m < w || m > Character.MAX_VALUE + 1 || fileSize(n, w, m) != buffer.capacity()) {
+            throw new IOException("Corrupt DFA file, header does not match size: " + file);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(0, buffer.capacity() - 4));
+        if ((int) crc.getValue() != buffer.getInt(buffer.capacity() - 4)) {
+            throw new IOException("Corrupt DFA file, checksum mismatch: " + file);
+        }
+
+        int[] starts = new int[w + 1];
+        for (int c = 0; c <= w; c++) {
+            starts[c] = buffer.getInt(HEADER_BYTES + c * 4);
+        }
+        char[] symbols = new char[m];
+        for (int i = 0; i < m; i++) {
+            symbols[i] = buffer.getChar(symbolsOffset(w) + i * 2);
+        }
+        if (start < DEAD || start >= n) {
+            throw new IOException("Corrupt DFA file, start state out of range: " + file);
+        }
+        MappedDFA dfa;
+        try {
+            dfa = new MappedDFA(buffer, n, start, new Alphabet(symbols, starts));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt DFA file, " + e.getMessage() + ": " + file);
+        }
+
+        // a bad table would only fail later with an index error, so catch it now
+        for (int i = 0; i < dfa.table.limit(); i++) {
+            int to = dfa.table.get(i);
+            if (to < DEAD || to >= n) {
+                throw new IOException("Corrupt DFA file, transition out of range: " + file);
+            }
+        }
+        return dfa;
+    }
+
+    /**
+     * Runs the mapped table over the input without allocating
+     * @param input string to test
+     * @return true if accepted, false otherwise
+     */
+    @Override
+    public boolean accepts(CharSequence input) {
+        int state = startState;
+        int len = input.length();
+        for (int i = 0; i < len && state != DEAD; i++) {
+            state = step(state, input.charAt(i));
+        }
+        return state != DEAD && isAccepting(state);
+    }
+
+    // creates a streaming matcher holding a single current state
+    @Override
+    public StreamMatcher matcher() {
+        return new MappedMatcher();
+    }
+
+    // gets the next state from state on symbol, DEAD if no transition
+    public int step(int state, char symbol) {
+        int col = alphabet.columnOf(symbol);
+        return col < 0 ? DEAD : table.get(state * width + col);
+    }
+
+    // bytes before the symbols: header plus column starts
+    private static int symbolsOffset(int w) {
+        return HEADER_BYTES + 4 * (w + 1);
+    }
+
+    // bytes before the accept bitmap
+    private static int acceptOffset(int w, int m) {
+        return symbolsOffset(w) + padded(2L * m);
+    }
+
+    // bytes before the transition table
+    private static int tableOffset(int n, int w, int m) {
+        return acceptOffset(w, m) + padded((n + 7L) / 8);
+    }
+
+    // total file size, as a long so oversized tables can be detected
+    private static long fileSize(int n, int w, int m) {
+        return HEADER_BYTES + 4L * (w + 1) + padded(2L * m) + padded((n + 7L) / 8) + 4L * n * w + 4;
+    }
+
+    private static int padded(long bytes) {
+        return (int) ((bytes + 3) & ~3L);
+    }
+
+    /*
+     * Everything below:
+     * Gets the mapped tables.
+     */
+
+    public int getStartState() {
+        return startState;
+    }
+
+    public boolean isAccepting(int state) {
+        return (accepting.get(state >>> 3) & (1 << (state & 7))) != 0;
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    public Alphabet getAlphabet() {
+        return alphabet;
+    }
+
+    // streaming matcher over the mapped table, stops stepping once dead
+    private class MappedMatcher implements StreamMatcher {
+        private int state = startState;
+
+        @Override
+        public void reset() {
+            state = startState;
+        }
+
+        @Override
+        public void feed(char symbol) {
+            if (state != DEAD) {
+                state = step(state, symbol);
+            }
+        }
+
+        @Override
+        public void feed(CharSequence input) {
+            int len = input.length();
+            for (int i = 0; i < len && state != DEAD; i++) {
+                state = step(state, input.charAt(i));
+            }
+        }
+
+        @Override
+        public void feed(char[] input, int off, int len) {
+            int end = off + len;
+            for (int i = off; i < end && state != DEAD; i++) {
+                state = step(state, input[i]);
+            }
+        }
+
+        @Override
+        public boolean isAccepting() {
+            return state != DEAD && MappedDFA.this.isAccepting(state);
+        }
+
+        @Override
+        public boolean isDead() {
+            return state == DEAD;
+        }
+    }
+
+    // buffered little-endian writer that checksums everything it writes
+    private static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+        private long written;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putChar(char value) throws IOException {
+            ensure(2);
+            buffer.putChar(value);
+        }
+
+        void put(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        // writes zero bytes up to the next multiple of 4
+        void pad() throws IOException {
+            while ((written + buffer.position()) % 4 != 0) {
+                put((byte) 0);
+            }
+        }
+
+        // appends the checksum and writes out what is left
+        void finish() throws IOException {
+            crc.update(buffer.array(), 0, buffer.position());
+            flush();
+            buffer.putInt((int) crc.getValue());
+            flush();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                crc.update(buffer.array(), 0, buffer.position());
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            written += buffer.position();
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Timespan;
+
+/*
+ * Process-wide counters for matching and conversion, off unless the JVM is
+ * started with -Dfsa.metrics=true.
+ *
+ * ENABLED is a static final read once, so when it is false the JIT folds every
+ * "if (Metrics.ENABLED)" in the hot paths away and the counters cost nothing.
+ * When it is true the counters are LongAdders, which threads update without
+ * contending on one cache line. Hot loops count locally and report once per
+ * call, never per character.
+ *
+ * snapshot() copies the counters into a plain object. Each conversion is also
+ * a JFR event (fsa.Conversion), and while a recording runs the counters are
+ * emitted every second as fsa.Metrics, so they show up in JDK Mission Control.
+ */
+public class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("fsa.metrics");
+
+    private static final LongAdder CHARS = new LongAdder();          // input characters consumed
+    private static final LongAdder ACTIVE_STEPS = new LongAdder();   // NFA simulation steps
+    private static final LongAdder ACTIVE_STATES = new LongAdder();  // active states summed over those steps
+    private static final LongAccumulator MAX_ACTIVE = new LongAccumulator(Math::max, 0);
+    private static final LongAdder CLOSURES = new LongAdder();       // epsilon closures computed, not cached
+    private static final LongAdder DEAD_EXITS = new LongAdder();     // matches rejected before the end of input
+    private static final LongAdder CONVERSIONS = new LongAdder();    // subset constructions finished
+    private static final LongAdder DFA_STATES = new LongAdder();     // DFA states they created
+    private static final LongAdder CONVERSION_NANOS = new LongAdder();
+
+    static {
+        if (ENABLED) {
+            FlightRecorder.addPeriodicEvent(MetricsEvent.class, Metrics::emitMetricsEvent);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    // counts characters consumed by one match
+    static void chars(long count) {
+        CHARS.add(count);
+    }
+
+    // counts a match that stopped early because no state was left
+    static void deadExit() {
+        DEAD_EXITS.increment();
+    }
+
+    // counts a number of NFA simulation steps and the active states summed over them
+    static void activeStates(long steps, long total, long max) {
+        ACTIVE_STEPS.add(steps);
+        ACTIVE_STATES.add(total);
+        MAX_ACTIVE.accumulate(max);
+    }
+
+    // counts epsilon closures computed from scratch
+    static void closures(long count) {
+        CLOSURES.add(count);
+    }
+
+    /**
+     * Counts a finished subset construction and commits its JFR event
+     * @param nfaStates states of the NFA converted
+     * @param dfaStates DFA states created
+     * @param startNanos System.nanoTime() when the construction started
+     */
+    static void conversion(int nfaStates, int dfaStates, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        CONVERSIONS.increment();
+        DFA_STATES.add(dfaStates);
+        CONVERSION_NANOS.add(nanos);
+
+        ConversionEvent event = new ConversionEvent();
+        if (event.shouldCommit()) {
+            event.nfaStates = nfaStates;
+            event.dfaStates = dfaStates;
+            event.wallTime = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Copies every counter, counters updated during the copy may or may not be included
+     * @return snapshot of the counters since the start or the last reset
+     */
+    public static Snapshot snapshot() {
+        return new Snapshot(CHARS.sum(), ACTIVE_STEPS.sum(), ACTIVE_STATES.sum(), MAX_ACTIVE.get(),
+            CLOSURES.sum(), DEAD_EXITS.sum(), CONVERSIONS.sum(), DFA_STATES.sum(), CONVERSION_NANOS.sum());
+    }
+
+    // sets every counter back to zero
+    public static void reset() {
+        CHARS.reset();
+        ACTIVE_STEPS.reset();
+        ACTIVE_STATES.reset();
+        MAX_ACTIVE.reset();
+        CLOSURES.reset();
+        DEAD_EXITS.reset();
+        CONVERSIONS.reset();
+        DFA_STATES.reset();
+        CONVERSION_NANOS.reset();
+    }
+
+    private static void emitMetricsEvent() {
+        Snapshot s = snapshot();
+        MetricsEvent event = new MetricsEvent();
+        event.charsProcessed = s.charsProcessed;
+        event.averageActiveStates = s.getAverageActiveStates();
+        event.maxActiveStates = s.maxActiveStates;
+        event.closuresComputed = s.closuresComputed;
+        event.deadStateExits = s.deadStateExits;
+        event.conversions = s.conversions;
+        event.dfaStatesCreated = s.dfaStatesCreated;
+        event.conversionTime = s.conversionNanos;
+        event.commit();
+    }
+
+    /*
+     * Immutable copy of the counters at one point in time.
+     */
+    public static class Snapshot {
+        private final long charsProcessed;
+        private final long activeStateSteps;
+        private final long activeStateTotal;
+        private final long maxActiveStates;
+        private final long closuresComputed;
+        private final long deadStateExits;
+        private final long conversions;
+        private final long dfaStatesCreated;
+        private final long conversionNanos;
+
+        Snapshot(long charsProcessed, long activeStateSteps, long activeStateTotal, long maxActiveStates,
+                long closuresComputed, long deadStateExits, long conversions, long dfaStatesCreated,
+                long conversionNanos) {
+            this.charsProcessed = charsProcessed;
+            this.activeStateSteps = activeStateSteps;
+            this.activeStateTotal = activeStateTotal;
+            this.maxActiveStates = maxActiveStates;
+            this.closuresComputed = closuresComputed;
+            this.deadStateExits = deadStateExits;
+            this.conversions = conversions;
+            this.dfaStatesCreated = dfaStatesCreated;
+            this.conversionNanos = conversionNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "chars=" + charsProcessed
+                + " activeStates(avg=" + String.format(java.util.Locale.ROOT, "%.2f", getAverageActiveStates())
+                + " max=" + maxActiveStates + ")"
+                + " closures=" + closuresComputed
+                + " deadExits=" + deadStateExits
+                + " conversions=" + conversions
+                + " dfaStates=" + dfaStatesCreated
+                + " conversionMs=" + conversionNanos / 1_000_000;
+        }
+
+        /*
+         * Everything below:
+         * Gets the counters.
+         */
+
+        // input characters consumed by every kind of match
+        public long getCharsProcessed() {
+            return charsProcessed;
+        }
+
+        // number of NFA simulation steps whose active set was counted
+        public long getActiveStateSteps() {
+            return activeStateSteps;
+        }
+
+        // mean number of active states per NFA simulation step, 0 if there were none
+        public double getAverageActiveStates() {
+            return activeStateSteps == 0 ? 0 : (double) activeStateTotal / activeStateSteps;
+        }
+
+        public long getMaxActiveStates() {
+            return maxActiveStates;
+        }
+
+        // epsilon closures computed rather than found in a cache
+        public long getClosuresComputed() {
+            return closuresComputed;
+        }
+
+        // matches rejected before the end of the input because no state was left
+        public long getDeadStateExits() {
+            return deadStateExits;
+        }
+
+        // number of finished subset constructions (toDFA)
+        public long getConversions() {
+            return conversions;
+        }
+
+        public long getDfaStatesCreated() {
+            return dfaStatesCreated;
+        }
+
+        // wall time of every conversion added up
+        public long getConversionNanos() {
+            return conversionNanos;
+        }
+    }
+
+    @Name("fsa.Conversion")
+    @Label("Subset Construction")
+    @Category("Finite State Automata")
+    @Description("An NFA converted to a DFA")
+    static class ConversionEvent extends Event {
+        @Label("NFA States")
+        int nfaStates;
+
+        @Label("DFA States")
+        int dfaStates;
+
+        @Label("Wall Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long wallTime;
+    }
+
+    @Name("fsa.Metrics")
+    @Label("Automata Metrics")
+    @Category("Finite State Automata")
+    @Description("Matching and conversion counters since the start or the last reset")
+    @Period("1 s")
+    static class MetricsEvent extends Event {
+        @Label("Characters Processed")
+        long charsProcessed;
+
+        @Label("Average Active States")
+        double averageActiveStates;
+
+        @Label("Max Active States")
+        long maxActiveStates;
+
+        @Label("Closures Computed")
+        long closuresComputed;
+
+        @Label("Dead State Exits")
+        long deadStateExits;
+
+        @Label("Conversions")
+        long conversions;
+
+        @Label("DFA States Created")
+        long dfaStatesCreated;
+
+        @Label("Conversion Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long conversionTime;
+    }
+}
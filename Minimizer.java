@@ -0,0 +1,257 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/*
+ * Minimizes a DFA with Hopcroft's partition refinement algorithm, O(n·k·log n).
+ * A missing transition means reject, so the DFA is completed with an implicit
+ * dead state before refining. States equivalent to the dead state are left out
+ * of the result again, which keeps the output partial like the input.
+ * Unreachable states are dropped and the result is numbered in breadth-first order.
+ * Refinement runs over the alphabet's equivalence classes (k is the number of
+ * classes), and each class is expanded back to its symbols in the result.
+ */
+public class Minimizer {
+    // refinable partition over states 0..n-1
+    private int[] elems;   // states grouped by block
+    private int[] loc;     // state -> index in elems
+    private int[] blockOf; // state -> block
+    private int[] first;   // block -> first index in elems
+    private int[] end;     // block -> index after last element
+    private int[] marked;  // block -> number of marked states at the front of the block
+    private int blocks;
+
+    /**
+     * Builds the minimal DFA for the language of the given DFA
+     * @param dfa DFA to minimize
+     * @return new minimal DFA, the input is not modified
+     */
+    public DFA minimize(DFA dfa) {
+        CompiledDFA table = dfa.compile();
+        DFA result = new DFA();
+        int start = table.getStartState();
+        if (start == CompiledDFA.DEAD) {
+            result.addState(0, true, false); // empty language, like the dead start block below
+            return result;
+        }
+
+        int k = table.getAlphabet().size();
+        int[] reachable = reachableStates(table, k);
+        int n = reachable.length + 1; // plus the dead state
+        int dead = n - 1;
+
+        // dense index over reachable states, completed with the dead state
+        int[] index = new int[table.getStateCount()];
+        Arrays.fill(index, -1);
+        for (int i = 0; i < reachable.length; i++) {
+            index[reachable[i]] = i;
+        }
+        int[] delta = new int[n * k];
+        boolean[] accepting = new boolean[n];
+        for (int i = 0; i < reachable.length; i++) {
+            accepting[i] = table.isAccepting(reachable[i]);
+            for (int c = 0; c < k; c++) {
+                int to = table.step(reachable[i], table.getAlphabet().symbolAt(c));
+                delta[i * k + c] = to == CompiledDFA.DEAD ? dead : index[to];
+            }
+        }
+        for (int c = 0; c < k; c++) {
+            delta[dead * k + c] = dead;
+        }
+
+        refine(n, k, delta, accepting);
+
+        // number blocks in breadth-first order from the start block, skipping the dead block
+        int deadBlock = blockOf[dead];
+        int[] newId = new int[blocks];
+        Arrays.fill(newId, -1);
+        int[] order = new int[blocks];
+        int count = 0;
+        int startBlock = blockOf[index[start]];
+        newId[startBlock] = count;
+        order[count++] = startBlock;
+        result.addState(0, true, accepting[elems[first[startBlock]]]);
+        if (startBlock == deadBlock) {
+            return result; // empty language
+        }
+
+        Alphabet alphabet = table.getAlphabet();
+        for (int i = 0; i < count; i++) {
+            int rep = elems[first[order[i]]];
+            for (int c = 0; c < k; c++) {
+                int toBlock = blockOf[delta[rep * k + c]];
+                if (toBlock == deadBlock) {
+                    continue; // leave the edge out, missing means reject
+                }
+                if (newId[toBlock] < 0) {
+                    newId[toBlock] = count;
+                    order[count++] = toBlock;
+                    result.addState(newId[toBlock], false, accepting[elems[first[toBlock]]]);
+                }
+                for (int j = alphabet.columnStart(c); j < alphabet.columnStart(c + 1); j++) {
+                    result.addTransition(i, newId[toBlock], alphabet.symbol(j)); // every symbol of the class
+                }
+            }
+        }
+        return result;
+    }
+
+    // finds the states reachable from the start state, in ascending order
+    private static int[] reachableStates(CompiledDFA table, int k) {
+        boolean[] seen = new boolean[table.getStateCount()];
+        int[] queue = new int[table.getStateCount()];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = table.getStartState();
+        seen[table.getStartState()] = true;
+        while (head < tail) {
+            int s = queue[head++];
+            for (int c = 0; c < k; c++) {
+                int to = table.step(s, table.getAlphabet().symbolAt(c));
+                if (to != CompiledDFA.DEAD && !seen[to]) {
+                    seen[to] = true;
+                    queue[tail++] = to;
+                }
+            }
+        }
+        int[] result = Arrays.copyOf(queue, tail);
+        Arrays.sort(result);
+        return result;
+    }
+
+    // refines {accepting, rejecting} until every block is a Myhill-Nerode class
+    private void refine(int n, int k, int[] delta, boolean[] accepting) {
+        // inverse transitions per column in CSR form: preds of t on c are
+        // predStates[predStart[c * (n + 1) + t] .. predStart[c * (n + 1) + t + 1])
+        int[] predStart = new int[k * (n + 1)];
+        int[] predStates = new int[n * k];
+        for (int s = 0; s < n; s++) {
+            for (int c = 0; c < k; c++) {
+                predStart[c * (n + 1) + delta[s * k + c] + 1]++;
+            }
+        }
+        for (int c = 0; c < k; c++) {
+            for (int t = 0; t < n; t++) {
+                predStart[c * (n + 1) + t + 1] += predStart[c * (n + 1) + t];
+            }
+        }
+        int[] fill = new int[k * (n + 1)];
+        for (int s = 0; s < n; s++) {
+            for (int c = 0; c < k; c++) {
+                int slot = c * (n + 1) + delta[s * k + c];
+                predStates[c * n + predStart[slot] + fill[slot]++] = s;
+            }
+        }
+
+        // initial partition: accepting states first, then the rest
+        elems = new int[n];
+        loc = new int[n];
+        blockOf = new int[n];
+        first = new int[n];
+        end = new int[n];
+        marked = new int[n];
+        int acceptCount = 0;
+        for (int s = 0; s < n; s++) {
+            if (accepting[s]) {
+                acceptCount++;
+            }
+        }
+        int a = 0;
+        int r = acceptCount;
+        for (int s = 0; s < n; s++) {
+            int i = accepting[s] ? a++ : r++;
+            elems[i] = s;
+            loc[s] = i;
+        }
+        blocks = 0;
+        if (acceptCount > 0) {
+            newBlock(0, acceptCount);
+        }
+        if (acceptCount < n) {
+            newBlock(acceptCount, n);
+        }
+
+        // worklist of splitters (block * k + column)
+        Deque<Integer> work = new ArrayDeque<>();
+        boolean[] inWork = new boolean[n * k];
+        int smaller = blocks == 1 ? 0 : (acceptCount <= n - acceptCount ? 0 : 1);
+        for (int c = 0; c < k; c++) {
+            work.add(smaller * k + c);
+            inWork[smaller * k + c] = true;
+        }
+
+        int[] splitter = new int[n];
+        int[] touched = new int[n];
+        while (!work.isEmpty()) {
+            int item = work.poll();
+            inWork[item] = false;
+            int b = item / k;
+            int c = item % k;
+
+            // copy the splitter first, marking may reorder it
+            int size = end[b] - first[b];
+            System.arraycopy(elems, first[b], splitter, 0, size);
+
+            int touchedCount = 0;
+            for (int i = 0; i < size; i++) {
+                int t = splitter[i];
+                int slot = c * (n + 1) + t;
+                for (int p = predStart[slot]; p < predStart[slot + 1]; p++) {
+                    int s = predStates[c * n + p];
+                    int sb = blockOf[s];
+                    if (loc[s] < first[sb] + marked[sb]) {
+                        continue; // already marked
+                    }
+                    if (marked[sb] == 0) {
+                        touched[touchedCount++] = sb;
+                    }
+                    swap(loc[s], first[sb] + marked[sb]);
+                    marked[sb]++;
+                }
+            }
+
+            // split every touched block into its marked and unmarked parts
+            for (int i = 0; i < touchedCount; i++) {
+                int sb = touched[i];
+                int m = marked[sb];
+                marked[sb] = 0;
+                if (m == end[sb] - first[sb]) {
+                    continue; // whole block marked, no split
+                }
+                int nb = newBlock(first[sb], first[sb] + m);
+                first[sb] += m;
+                for (int col = 0; col < k; col++) {
+                    if (inWork[sb * k + col]) {
+                        work.add(nb * k + col);
+                        inWork[nb * k + col] = true;
+                    } else {
+                        int pick = (end[nb] - first[nb]) <= (end[sb] - first[sb]) ? nb : sb;
+                        work.add(pick * k + col);
+                        inWork[pick * k + col] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    // creates a block over elems[from..to) and returns its number
+    private int newBlock(int from, int to) {
+        int b = blocks++;
+        first[b] = from;
+        end[b] = to;
+        for (int i = from; i < to; i++) {
+            blockOf[elems[i]] = b;
+        }
+        return b;
+    }
+
+    // swaps two positions in elems, keeping loc in sync
+    private void swap(int i, int j) {
+        int si = elems[i];
+        int sj = elems[j];
+        elems[i] = sj;
+        elems[j] = si;
+        loc[sj] = i;
+        loc[si] = j;
+    }
+}
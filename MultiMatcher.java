@@ -0,0 +1,194 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/*
+ * Matches one input against many automata in a single pass.
+ * The patterns are joined into one NFA, a new start state with epsilon
+ * edges to every pattern's start, and each accept state remembers which
+ * pattern it belongs to. That NFA is determinized lazily while matching,
+ * with the same LazyCache as LazyDFA: a DFA state is a set of NFA states,
+ * created the first time the input reaches it, and tagged with the sorted IDs
+ * of the patterns whose accept states it holds. The full product of the
+ * patterns is never built.
+ *
+ * The cache is cleared when it holds maxStates DFA states. If it is cleared
+ * again before enough input has paid for it, the rest of that input is
+ * matched with bitset NFA simulation.
+ *
+ * Not safe for concurrent use: matching fills the cache.
+ */
+public class MultiMatcher {
+    private static final int DEFAULT_MAX_STATES = 4096;
+    private static final int[] NONE = new int[0];
+
+    private final int patternCount;
+    private final PatternCache cache;
+
+    // joins the patterns with a cache of up to 4096 DFA states
+    public MultiMatcher(List<? extends FSA> patterns) {
+        this(patterns, DEFAULT_MAX_STATES);
+    }
+
+    /**
+     * Joins the patterns into one lazily determinized automaton
+     * @param patterns NFAs or DFAs, pattern i is reported as ID i
+     * @param maxStates largest number of DFA states kept in the cache
+     */
+    public MultiMatcher(List<? extends FSA> patterns, int maxStates) {
+        if (maxStates < 2) {
+            throw new IllegalArgumentException("Multi-pattern cache needs room for at least 2 states");
+        }
+        this.patternCount = patterns.size();
+
+        // count states and edges, state 0 is the shared start
+        int stateCount = 1;
+        int edgeCount = 0;
+        for (FSA fsa : patterns) {
+            stateCount += fsa.getStates().size();
+            edgeCount += fsa.getTransitions().size() + 1;
+        }
+        boolean[] accepting = new boolean[stateCount];
+        int[] from = new int[edgeCount];
+        int[] to = new int[edgeCount];
+        char[] labels = new char[edgeCount];
+        int[] owner = new int[stateCount];
+        Arrays.fill(owner, -1);
+
+        // copy each pattern with its states renumbered after the ones before it
+        int base = 1;
+        int e = 0;
+        for (int p = 0; p < patternCount; p++) {
+            FSA fsa = patterns.get(p);
+            int[] stateIds = new int[fsa.getStates().size()];
+            int i = 0;
+            for (State s : fsa.getStates()) {
+                stateIds[i++] = s.getId();
+            }
+            Arrays.sort(stateIds);
+
+            for (State s : fsa.getAcceptStates()) {
+                int dense = base + Arrays.binarySearch(stateIds, s.getId());
+                accepting[dense] = true;
+                owner[dense] = p;
+            }
+            if (fsa.getStartState() != null) {
+                from[e] = 0;
+                to[e] = base + Arrays.binarySearch(stateIds, fsa.getStartState().getId());
+                labels[e++] = FSA.EPSILON;
+            }
+            for (Transition t : fsa.getTransitions()) {
+                from[e] = base + Arrays.binarySearch(stateIds, t.getFromState().getId());
+                to[e] = base + Arrays.binarySearch(stateIds, t.getToState().getId());
+                labels[e++] = t.isEpsilon() ? FSA.EPSILON : t.getSymbol();
+            }
+            base += stateIds.length;
+        }
+
+        CompiledNFA nfa = new CompiledNFA(stateCount, 0, accepting,
+            Arrays.copyOf(from, e), Arrays.copyOf(to, e), Arrays.copyOf(labels, e));
+        cache = new PatternCache(nfa, owner, maxStates);
+    }
+
+    /**
+     * Finds every pattern that accepts the whole input
+     * @param input string to test
+     * @return set with bit i on if pattern i accepts
+     */
+    public BitSet matches(CharSequence input) {
+        BitSet result = new BitSet(patternCount);
+        for (int id : match(input)) {
+            result.set(id);
+        }
+        return result;
+    }
+
+    /**
+     * Finds every pattern that accepts the whole input
+     * @param input string to test
+     * @return IDs of the accepting patterns in ascending order
+     */
+    public int[] matchIds(CharSequence input) {
+        return match(input).clone();
+    }
+
+    /**
+     * Sees if any pattern accepts the whole input
+     * @param input string to test
+     * @return true if at least one pattern accepts
+     */
+    public boolean matchesAny(CharSequence input) {
+        return match(input).length > 0;
+    }
+
+    // runs the lazy DFA over the input, returns the cached (shared) pattern IDs
+    private int[] match(CharSequence input) {
+        int state = cache.run(input);
+        if (state == LazyCache.FALLBACK) {
+            return cache.patternsIn(cache.next);
+        }
+        return state >= 0 ? cache.matched[state] : NONE;
+    }
+
+    /*
+     * Everything below:
+     * Gets the pattern count and cache statistics.
+     */
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    // number of DFA states currently cached
+    public int getCachedStates() {
+        return cache.getCachedStates();
+    }
+
+    public long getCacheClears() {
+        return cache.getCacheClears();
+    }
+
+    // number of matches finished by NFA simulation because the cache thrashed
+    public long getFallbacks() {
+        return cache.getFallbacks();
+    }
+
+    // the lazy DFA of the joined NFA, each state tagged with the patterns it accepts
+    private static class PatternCache extends LazyCache {
+        private final int[] patternOf; // NFA state -> pattern ID if accepting, else -1
+        private final BitSet ids = new BitSet();
+        int[][] matched;               // DFA state -> sorted IDs of the patterns it accepts
+
+        PatternCache(CompiledNFA nfa, int[] patternOf, int maxStates) {
+            super(nfa, nfa.getAlphabet().size(), nfa.getStateCount(), maxStates);
+            this.patternOf = patternOf;
+            clearCache();
+        }
+
+        @Override
+        void resizePayload(int capacity) {
+            matched = matched == null ? new int[capacity][] : Arrays.copyOf(matched, capacity);
+        }
+
+        @Override
+        void tagState(int id, long[] states) {
+            matched[id] = patternsIn(states);
+        }
+
+        // collects the sorted IDs of the patterns with an accept state in the set
+        int[] patternsIn(long[] states) {
+            ids.clear();
+            for (int w = 0; w < states.length; w++) {
+                long bits = states[w];
+                while (bits != 0) {
+                    int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (patternOf[s] >= 0) {
+                        ids.set(patternOf[s]);
+                    }
+                }
+            }
+            return ids.isEmpty() ? NONE : ids.stream().toArray();
+        }
+    }
+}
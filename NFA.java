@@ -1,4 +1,4 @@
-import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Represents a Non-deterministic Finite Automaton (NFA).
@@ -7,17 +7,83 @@ import java.util.*;
  * - Multiple transitions from the same state on the same symbol
  * - States with no transitions for certain symbols
  * 
- * Inherits all functionality from the FSA base class.
+ * Inherits all functionality from the FSA base class, except that accepts
+ * runs on a cached compile() (bit-parallel when the NFA fits in position
+ * words, bitsets otherwise) once the NFA is queried a second time without
+ * changing. addState and addTransition drop the compiled copy. NFAs whose
+ * bitsets would take more than MAX_COMPILED_BYTES keep the set simulation.
  */
 
 public class NFA extends FSA {
+    static final long MAX_COMPILED_BYTES = 4L << 20;
+
+    private CompiledNFA compiled; // what accepts runs on, null until the second query after a change
+    private boolean queried;      // accepts ran since the last change
 
     // constructs an empty NFA with no states or transitions.
     public NFA() {
         super();
     }
 
-    // currently inherits all methods from FSA without modification.
+    // adds a new state, dropping the compiled copy
+    @Override
+    public void addState(int id, boolean isStart, boolean isAccept) {
+        super.addState(id, isStart, isAccept);
+        compiled = null;
+        queried = false;
+    }
+
+    // adds a transition from fromId to toId on symbol, dropping the compiled copy
+    @Override
+    public void addTransition(int fromId, int toId, char symbol) {
+        super.addTransition(fromId, toId, symbol);
+        compiled = null;
+        queried = false;
+    }
+
+    /**
+     * Sees if the NFA accepts the given input string.
+     * The first query after a change runs the set simulation, so building
+     * and testing once does not pay for compiling; later queries compile once
+     * and reuse it until the next change.
+     * @param input string to test
+     * @return true if accepted, false otherwise
+     */
+    @Override
+    public boolean accepts(String input) {
+        if (compiled == null) {
+            if (!queried || CompiledNFA.estimateBytes(getStates().size(), getTransitions().size(),
+                    getAlphabet().size()) > MAX_COMPILED_BYTES) {
+                queried = true;
+                return super.accepts(input);
+            }
+            compiled = compile();
+        }
+        return compiled.accepts(input);
+    }
+
+    // true if accepts is running on a compiled copy
+    boolean isCompiled() {
+        return compiled != null;
+    }
+    
+    /**
+     * Compiles this NFA into an immutable bitset-driven form
+     * @return compiled NFA with precomputed epsilon closures
+     */
+    @Override
+    public CompiledNFA compile() {
+        return new CompiledNFA(this);
+    }
+    
+    /**
+     * Creates a DFA that determinizes this NFA lazily while matching
+     * @param maxCachedStates largest number of DFA states kept at once
+     * @return lazy DFA over a compiled copy of this NFA
+     */
+    public LazyDFA toLazyDFA(int maxCachedStates) {
+        return new LazyDFA(compile(), maxCachedStates);
+    }
     
     /**
      * Converts this NFA to an equivalent DFA using subset construction algorithm
@@ -25,60 +91,35 @@ public class NFA extends FSA {
      */
     @Override
     public DFA toDFA() {
-        DFA dfa = new DFA();
-        
-        // map from set of NFA states to DFA state ID
-        Map<Set<State>, Integer> stateMap = new HashMap<>();
-        Queue<Set<State>> unmarked = new LinkedList<>();
-        int nextStateId = 0;
-        
-        // start with epsilon closure of start state
-        Set<State> startClosure = closure(getStartState());
-        stateMap.put(startClosure, nextStateId);
-        
-        // check if any state in start closure is accepting
-        boolean isStartAccepting = startClosure.stream()
-            .anyMatch(s -> getAcceptStates().contains(s));
-        
-        dfa.addState(nextStateId, true, isStartAccepting);
-        unmarked.add(startClosure);
-        nextStateId++;
-        
-        // process each unmarked state
-        while (!unmarked.isEmpty()) {
-            Set<State> currentSet = unmarked.poll();
-            int currentId = stateMap.get(currentSet);
-            
-            // for each symbol in alphabet
-            for (char symbol : getAlphabet()) {
-                Set<State> nextSet = new HashSet<>();
-                
-                // compute next states for this symbol
-                for (State state : currentSet) {
-                    nextSet.addAll(next(state, symbol));
-                }
-                
-                if (!nextSet.isEmpty()) {
-                    // check if this state set already exists
-                    if (!stateMap.containsKey(nextSet)) {
-                        stateMap.put(nextSet, nextStateId);
-                        
-                        // check if any state in set is accepting
-                        boolean isAccepting = nextSet.stream()
-                            .anyMatch(s -> getAcceptStates().contains(s));
-                        
-                        dfa.addState(nextStateId, false, isAccepting);
-                        unmarked.add(nextSet);
-                        nextStateId++;
-                    }
-                    
-                    // add transition in DFA
-                    int toId = stateMap.get(nextSet);
-                    dfa.addTransition(currentId, toId, symbol);
-                }
-            }
-        }
-        
-        return dfa;
+        return new SubsetConstruction().determinize(this);
+    }
+    
+    /**
+     * Converts this NFA to an equivalent DFA, stepping each level of subsets in parallel;
+     * NFAs too large for bitsets are converted sequentially over packed edges, as toDFA() does
+     * @param pool pool to run the subset steps on
+     * @return the same DFA as toDFA(), state for state
+     */
+    public DFA toDFA(ForkJoinPool pool) {
+        return new SubsetConstruction().determinize(this, pool);
+    }
+    
+    /**
+     * Converts this NFA to an equivalent DFA, giving up past the given limits
+     * @param maxStates largest number of DFA states allowed
+     * @param maxMemoryBytes largest approximate size of the compiled NFA and subset table allowed
+     * @return equivalent DFA
+     * @throws IllegalStateException if a limit is exceeded
+     */
+    public DFA toDFA(int maxStates, long maxMemoryBytes) {
+        return new SubsetConstruction(maxStates, maxMemoryBytes).determinize(this);
+    }
+
+    /**
+     * Builds a smaller NFA with the same language, running every NFAOptimizer stage
+     * @return epsilon-free, trimmed, merged NFA with states numbered from 0 breadth-first
+     */
+    public NFA optimize() {
+        return new NFAOptimizer().optimize(this);
     }
 }
\ No newline at end of file
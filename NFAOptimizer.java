@@ -0,0 +1,427 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Shrinks an NFA without changing its language, in up to four stages:
+ * 1. Epsilon removal: state s gets an edge s --c--> u for every edge t --c--> u
+ *    leaving its epsilon closure, and accepts if its closure holds an accept state.
+ * 2. Trimming: states not reachable from the start, or that cannot reach an
+ *    accept state, are dropped with their edges. This also drops the epsilon-only
+ *    states that stage 1 leaves unreachable.
+ * 3. Bisimulation merge: states are split into blocks by accept flag, then
+ *    blocks are split until all states in a block have edges on the same symbols
+ *    to the same blocks. Each block becomes one state.
+ * 4. Renumbering: states get dense IDs 0..n-1 in breadth-first order from the
+ *    start, so states used together sit together in compiled tables.
+ *
+ * Every stage can be switched off with its setter; the stages that run, run
+ * in this order. The automaton is worked on as dense edge arrays sorted by
+ * source, symbol and target, with duplicate edges removed after each stage.
+ * getReport() gives the state and transition counts after every stage of the
+ * last run.
+ */
+public class NFAOptimizer {
+    private boolean removeEpsilons = true;
+    private boolean trim = true;
+    private boolean mergeBisimilar = true;
+    private boolean renumber = true;
+    private Report report;
+
+    // constructs an optimizer with every stage on
+    public NFAOptimizer() {
+    }
+
+    /**
+     * Runs the enabled stages on a copy of an NFA
+     * @param nfa automaton to optimize, not modified
+     * @return new NFA accepting the same language
+     */
+    public NFA optimize(NFA nfa) {
+        Graph g = Graph.of(nfa);
+        report = new Report();
+        report.add("input", g);
+        if (removeEpsilons) {
+            g = removeEpsilons(g);
+            report.add("epsilon removal", g);
+        }
+        if (trim) {
+            g = trim(g);
+            report.add("trim", g);
+        }
+        if (mergeBisimilar) {
+            g = mergeBisimilar(g);
+            report.add("bisimulation merge", g);
+        }
+        if (renumber) {
+            g = renumber(g);
+            report.add("renumber", g);
+        }
+        return g.toNFA();
+    }
+
+    // adds an edge s --c--> u for each edge leaving the epsilon closure of s
+    private static Graph removeEpsilons(Graph g) {
+        EdgeList edges = new EdgeList();
+        boolean[] accept = new boolean[g.n];
+        int[] closure = new int[g.n];
+        int[] mark = new int[g.n];
+        for (int s = 0; s < g.n; s++) {
+            // the closure doubles as the DFS worklist, mark[t] == s + 1 means t is in it
+            int size = 0;
+            closure[size++] = s;
+            mark[s] = s + 1;
+            for (int i = 0; i < size; i++) {
+                int t = closure[i];
+                accept[s] |= g.accept[t];
+                for (int e = g.offsets[t]; e < g.offsets[t + 1]; e++) {
+                    if (g.labels[e] != FSA.EPSILON) {
+                        edges.add(s, g.targets[e], g.labels[e]);
+                    } else if (mark[g.targets[e]] != s + 1) {
+                        mark[g.targets[e]] = s + 1;
+                        closure[size++] = g.targets[e];
+                    }
+                }
+            }
+        }
+        return Graph.of(g.n, g.start, accept, edges);
+    }
+
+    // keeps the states that are reachable from the start and can reach an accept state
+    private static Graph trim(Graph g) {
+        if (g.start < 0) {
+            return g;
+        }
+        boolean[] keep = new boolean[g.n];
+        int[] stack = new int[g.n];
+        int top = 0;
+        keep[g.start] = true;
+        stack[top++] = g.start;
+        while (top > 0) {
+            int s = stack[--top];
+            for (int e = g.offsets[s]; e < g.offsets[s + 1]; e++) {
+                if (!keep[g.targets[e]]) {
+                    keep[g.targets[e]] = true;
+                    stack[top++] = g.targets[e];
+                }
+            }
+        }
+
+        // backwards from the reachable accept states, over reversed edges
+        int[] reverseOffsets = new int[g.n + 1];
+        for (int e = 0; e < g.edgeCount(); e++) {
+            reverseOffsets[g.targets[e] + 1]++;
+        }
+        for (int s = 0; s < g.n; s++) {
+            reverseOffsets[s + 1] += reverseOffsets[s];
+        }
+        int[] sources = new int[g.edgeCount()];
+        int[] fill = Arrays.copyOf(reverseOffsets, g.n);
+        for (int s = 0; s < g.n; s++) {
+            for (int e = g.offsets[s]; e < g.offsets[s + 1]; e++) {
+                sources[fill[g.targets[e]]++] = s;
+            }
+        }
+        boolean[] live = new boolean[g.n];
+        for (int s = 0; s < g.n; s++) {
+            if (keep[s] && g.accept[s]) {
+                live[s] = true;
+                stack[top++] = s;
+            }
+        }
+        while (top > 0) {
+            int s = stack[--top];
+            for (int i = reverseOffsets[s]; i < reverseOffsets[s + 1]; i++) {
+                if (keep[sources[i]] && !live[sources[i]]) {
+                    live[sources[i]] = true;
+                    stack[top++] = sources[i];
+                }
+            }
+        }
+
+        live[g.start] = true; // an empty language still needs a start state
+        int[] newId = new int[g.n];
+        int count = 0;
+        for (int s = 0; s < g.n; s++) {
+            newId[s] = live[s] ? count++ : -1;
+        }
+        return g.map(newId, count);
+    }
+
+    // merges states that no sequence of edges can tell apart
+    private static Graph mergeBisimilar(Graph g) {
+        int[] block = new int[g.n];
+        for (int s = 0; s < g.n; s++) {
+            block[s] = g.accept[s] ? 1 : 0;
+        }
+        int blocks = -1;
+        int[] key = new int[1];
+        long[] row = new long[16];
+        while (true) {
+            // a state's signature is its block and its (symbol, target block) pairs
+            SubsetTable signatures = new SubsetTable();
+            int[] next = new int[g.n];
+            for (int s = 0; s < g.n; s++) {
+                int len = g.offsets[s + 1] - g.offsets[s];
+                if (row.length < len) {
+                    row = new long[Math.max(len, row.length * 2)];
+                }
+                for (int i = 0; i < len; i++) {
+                    int e = g.offsets[s] + i;
+                    row[i] = (long) g.labels[e] << 32 | block[g.targets[e]];
+                }
+                Arrays.sort(row, 0, len);
+                if (key.length < 1 + 2 * len) {
+                    key = new int[Math.max(1 + 2 * len, key.length * 2)];
+                }
+                int keyLen = 0;
+                key[keyLen++] = block[s];
+                for (int i = 0; i < len; i++) {
+                    if (i == 0 || row[i] != row[i - 1]) {
+                        key[keyLen++] = (int) (row[i] >>> 32);
+                        key[keyLen++] = (int) row[i];
+                    }
+                }
+                int hash = SubsetTable.hash(key, keyLen);
+                int id = signatures.find(key, keyLen, hash);
+                next[s] = id >= 0 ? id : signatures.add(key, keyLen, hash);
+            }
+            block = next;
+
+            // blocks only ever split, so an unchanged count means nothing split
+            if (signatures.size() == blocks) {
+                break;
+            }
+            blocks = signatures.size();
+        }
+        return g.map(block, blocks);
+    }
+
+    // numbers the states in breadth-first order from the start, unreachable ones last
+    private static Graph renumber(Graph g) {
+        int[] newId = new int[g.n];
+        Arrays.fill(newId, -1);
+        int[] order = new int[g.n];
+        int count = 0;
+        if (g.start >= 0) {
+            newId[g.start] = count;
+            order[count++] = g.start;
+        }
+        for (int i = 0; i < count; i++) {
+            int s = order[i];
+            for (int e = g.offsets[s]; e < g.offsets[s + 1]; e++) {
+                if (newId[g.targets[e]] < 0) {
+                    newId[g.targets[e]] = count;
+                    order[count++] = g.targets[e];
+                }
+            }
+        }
+        for (int s = 0; s < g.n; s++) {
+            if (newId[s] < 0) {
+                newId[s] = count++;
+            }
+        }
+        return g.map(newId, count);
+    }
+
+    /*
+     * Everything below:
+     * Sets the stages to run and gets the report.
+     */
+
+    // turns epsilon removal on or off
+    public NFAOptimizer setRemoveEpsilons(boolean removeEpsilons) {
+        this.removeEpsilons = removeEpsilons;
+        return this;
+    }
+
+    // turns dropping unreachable and dead states on or off
+    public NFAOptimizer setTrim(boolean trim) {
+        this.trim = trim;
+        return this;
+    }
+
+    // turns merging bisimilar states on or off
+    public NFAOptimizer setMergeBisimilar(boolean mergeBisimilar) {
+        this.mergeBisimilar = mergeBisimilar;
+        return this;
+    }
+
+    // turns breadth-first renumbering on or off
+    public NFAOptimizer setRenumber(boolean renumber) {
+        this.renumber = renumber;
+        return this;
+    }
+
+    // gets the sizes after each stage of the last optimize call, null before the first
+    public Report getReport() {
+        return report;
+    }
+
+    /*
+     * State and transition counts of the input and after each stage that ran.
+     */
+    public static class Report {
+        private final List<String> stages = new ArrayList<>();
+        private final List<int[]> sizes = new ArrayList<>(); // {states, transitions} per stage
+
+        private void add(String stage, Graph g) {
+            stages.add(stage);
+            sizes.add(new int[] { g.n, g.edgeCount() });
+        }
+
+        public int getStatesBefore() {
+            return sizes.get(0)[0];
+        }
+
+        public int getStatesAfter() {
+            return sizes.get(sizes.size() - 1)[0];
+        }
+
+        public int getTransitionsBefore() {
+            return sizes.get(0)[1];
+        }
+
+        public int getTransitionsAfter() {
+            return sizes.get(sizes.size() - 1)[1];
+        }
+
+        // one line per stage: "stage: n states, m transitions"
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < stages.size(); i++) {
+                sb.append(stages.get(i)).append(": ").append(sizes.get(i)[0]).append(" states, ")
+                    .append(sizes.get(i)[1]).append(" transitions\n");
+            }
+            return sb.toString();
+        }
+    }
+
+    // edges collected by a stage before they are sorted into a Graph
+    private static class EdgeList {
+        int size;
+        int[] from = new int[16];
+        int[] to = new int[16];
+        char[] labels = new char[16];
+
+        void add(int source, int target, char label) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+                labels = Arrays.copyOf(labels, size * 2);
+            }
+            from[size] = source;
+            to[size] = target;
+            labels[size++] = label;
+        }
+    }
+
+    // dense automaton with CSR edges sorted by source, then symbol, then target, no duplicates
+    private static class Graph {
+        final int n;
+        final int start;         // -1 if none
+        final boolean[] accept;
+        final int[] offsets;     // edges of s are offsets[s]..offsets[s + 1]
+        final int[] targets;
+        final char[] labels;
+
+        private Graph(int n, int start, boolean[] accept, int[] offsets, int[] targets, char[] labels) {
+            this.n = n;
+            this.start = start;
+            this.accept = accept;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.labels = labels;
+        }
+
+        // copies an NFA, renumbering its states 0..n-1 in order of their IDs
+        static Graph of(NFA nfa) {
+            int[] ids = new int[nfa.getStates().size()];
+            int i = 0;
+            for (State s : nfa.getStates()) {
+                ids[i++] = s.getId();
+            }
+            Arrays.sort(ids);
+            boolean[] accept = new boolean[ids.length];
+            for (State s : nfa.getAcceptStates()) {
+                accept[Arrays.binarySearch(ids, s.getId())] = true;
+            }
+            int start = nfa.getStartState() == null ? -1 : Arrays.binarySearch(ids, nfa.getStartState().getId());
+            EdgeList edges = new EdgeList();
+            for (Transition t : nfa.getTransitions()) {
+                edges.add(Arrays.binarySearch(ids, t.getFromState().getId()),
+                    Arrays.binarySearch(ids, t.getToState().getId()), t.isEpsilon() ? FSA.EPSILON : t.getSymbol());
+            }
+            return of(ids.length, start, accept, edges);
+        }
+
+        // sorts edges into CSR rows, dropping duplicates
+        static Graph of(int n, int start, boolean[] accept, EdgeList edges) {
+            int[] offsets = new int[n + 1];
+            for (int e = 0; e < edges.size; e++) {
+                offsets[edges.from[e] + 1]++;
+            }
+            for (int s = 0; s < n; s++) {
+                offsets[s + 1] += offsets[s];
+            }
+            long[] keys = new long[edges.size]; // (symbol, target) per row
+            int[] fill = Arrays.copyOf(offsets, n);
+            for (int e = 0; e < edges.size; e++) {
+                keys[fill[edges.from[e]]++] = (long) edges.labels[e] << 32 | edges.to[e];
+            }
+
+            int[] targets = new int[edges.size];
+            char[] labels = new char[edges.size];
+            int[] newOffsets = new int[n + 1];
+            int count = 0;
+            for (int s = 0; s < n; s++) {
+                Arrays.sort(keys, offsets[s], offsets[s + 1]);
+                for (int k = offsets[s]; k < offsets[s + 1]; k++) {
+                    if (k == offsets[s] || keys[k] != keys[k - 1]) {
+                        labels[count] = (char) (keys[k] >>> 32);
+                        targets[count++] = (int) keys[k];
+                    }
+                }
+                newOffsets[s + 1] = count;
+            }
+            return new Graph(n, start, accept, newOffsets, Arrays.copyOf(targets, count), Arrays.copyOf(labels, count));
+        }
+
+        // renames every state s to newId[s], dropping states and edges mapped to -1
+        Graph map(int[] newId, int count) {
+            boolean[] newAccept = new boolean[count];
+            EdgeList edges = new EdgeList();
+            for (int s = 0; s < n; s++) {
+                if (newId[s] < 0) {
+                    continue;
+                }
+                newAccept[newId[s]] |= accept[s];
+                for (int e = offsets[s]; e < offsets[s + 1]; e++) {
+                    if (newId[targets[e]] >= 0) {
+                        edges.add(newId[s], newId[targets[e]], labels[e]);
+                    }
+                }
+            }
+            return of(count, start < 0 ? -1 : newId[start], newAccept, edges);
+        }
+
+        int edgeCount() {
+            return targets.length;
+        }
+
+        // builds an NFA with state IDs 0..n-1
+        NFA toNFA() {
+            NFA nfa = new NFA();
+            for (int s = 0; s < n; s++) {
+                nfa.addState(s, s == start, accept[s]);
+            }
+            for (int s = 0; s < n; s++) {
+                for (int e = offsets[s]; e < offsets[s + 1]; e++) {
+                    nfa.addTransition(s, targets[e], labels[e]);
+                }
+            }
+            return nfa;
+        }
+    }
+}
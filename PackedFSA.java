@@ -0,0 +1,384 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+ * Automaton stored as primitive arrays instead of State/Transition objects.
+ * States are dense int IDs, accept flags live in a BitSet and edges are kept
+ * struct-of-arrays in three parallel arrays (source, target, label), about
+ * ten bytes per edge. Before the first query the edges are sorted by source
+ * state, then label, then target, giving a CSR layout: offsets[s]..offsets[s+1]
+ * are the edges leaving s, so the edges on one symbol (or on epsilon) are a
+ * contiguous run found by binary search.
+ *
+ * Sets of states are int[] arrays sorted ascending. Queries reuse a marker
+ * array sized to the state count, so it is not safe for concurrent use,
+ * not even for reads, just like FSA.
+ */
+public class PackedFSA {
+    private final BitSet declared = new BitSet(); // IDs passed to addState
+    private final BitSet accept = new BitSet();
+    private int startState = -1;
+    private int stateCount;    // highest declared ID + 1
+
+    private int edgeCount;
+    private int[] from = new int[16];
+    private int[] to = new int[16];
+    private char[] labels = new char[16];
+
+    // CSR index over the edge arrays, rebuilt after edges are added
+    private boolean indexed;
+    private int[] offsets = new int[1];
+    private Alphabet alphabet; // equivalence classes, null until asked for
+
+    // scratch for set queries, mark[s] == stamp means s is already in the set
+    private int[] mark = new int[0];
+    private int stamp;
+
+    // constructs empty automaton with no states or transitions
+    public PackedFSA() {
+    }
+
+    /**
+     * Copies an automaton, renumbering its states 0..n-1 in order of their IDs
+     * @param fsa NFA or DFA to copy
+     */
+    public PackedFSA(FSA fsa) {
+        int[] ids = new int[fsa.getStates().size()];
+        int i = 0;
+        for (State s : fsa.getStates()) {
+            ids[i++] = s.getId();
+        }
+        Arrays.sort(ids);
+        for (State s : fsa.getStates()) {
+            addState(Arrays.binarySearch(ids, s.getId()), s == fsa.getStartState(), s.isAccept());
+        }
+        for (Transition t : fsa.getTransitions()) {
+            addTransition(Arrays.binarySearch(ids, t.getFromState().getId()),
+                Arrays.binarySearch(ids, t.getToState().getId()), t.getSymbol());
+        }
+    }
+
+    /**
+     * Adds a state, IDs should be dense since arrays are sized to the largest one
+     * @param id non-negative state ID
+     * @param isStart true to make this the start state
+     * @param isAccept true if this state accepts
+     */
+    public void addState(int id, boolean isStart, boolean isAccept) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Error: State ID must not be negative: " + id);
+        }
+        declared.set(id);
+        stateCount = Math.max(stateCount, id + 1);
+        if (isStart) {
+            startState = id;
+        }
+        if (isAccept) {
+            accept.set(id);
+        }
+        indexed = false;
+    }
+
+    // adds a transition from fromId to toId on symbol, FSA.EPSILON for an epsilon edge
+    public void addTransition(int fromId, int toId, char symbol) {
+        if (!declared.get(fromId) || !declared.get(toId)) {
+            throw new IllegalArgumentException("Error: States not found. From: " + fromId + ", To: " + toId);
+        }
+        if (edgeCount == labels.length) {
+            int capacity = Math.max(16, edgeCount * 2); // arrays are trimmed to size by index()
+            from = Arrays.copyOf(from, capacity);
+            to = Arrays.copyOf(to, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+        }
+        from[edgeCount] = fromId;
+        to[edgeCount] = toId;
+        labels[edgeCount] = symbol;
+        edgeCount++;
+        indexed = false;
+        alphabet = null;
+    }
+
+    /*
+     * Sorts the edges into CSR order, trimming the arrays to size
+     * Counting sort by source state, then each row is sorted by (label, target)
+     */
+    private void index() {
+        if (indexed) {
+            return;
+        }
+        offsets = new int[stateCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            offsets[from[e] + 1]++;
+        }
+        int widest = 0;
+        for (int s = 0; s < stateCount; s++) {
+            widest = Math.max(widest, offsets[s + 1]);
+            offsets[s + 1] += offsets[s];
+        }
+
+        int[] fill = Arrays.copyOf(offsets, stateCount);
+        int[] sortedTo = new int[edgeCount];
+        char[] sortedLabels = new char[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            int slot = fill[from[e]]++;
+            sortedTo[slot] = to[e];
+            sortedLabels[slot] = labels[e];
+        }
+
+        // within a row, order by label then target using packed long keys
+        long[] row = new long[widest];
+        int[] sortedFrom = new int[edgeCount];
+        for (int s = 0; s < stateCount; s++) {
+            int start = offsets[s];
+            int len = offsets[s + 1] - start;
+            Arrays.fill(sortedFrom, start, start + len, s);
+            if (len < 2) {
+                continue;
+            }
+            for (int i = 0; i < len; i++) {
+                row[i] = (long) sortedLabels[start + i] << 32 | sortedTo[start + i];
+            }
+            Arrays.sort(row, 0, len);
+            for (int i = 0; i < len; i++) {
+                sortedLabels[start + i] = (char) (row[i] >>> 32);
+                sortedTo[start + i] = (int) row[i];
+            }
+        }
+
+        from = sortedFrom;
+        to = sortedTo;
+        labels = sortedLabels;
+        if (mark.length < stateCount) {
+            mark = new int[stateCount];
+        }
+        indexed = true;
+    }
+
+    // finds the first edge of state with a label >= symbol
+    private int lowerBound(int state, char symbol) {
+        int lo = offsets[state];
+        int hi = offsets[state + 1];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (labels[mid] < symbol) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // starts a new set in the marker array
+    private void newSet() {
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(mark, 0);
+            stamp = 1;
+        }
+    }
+
+    // appends state to out if it is not in the set yet, returns the new size
+    private int add(int state, int[] out, int size) {
+        if (mark[state] != stamp) {
+            mark[state] = stamp;
+            out[size++] = state;
+        }
+        return size;
+    }
+
+    // follows epsilon edges from out[0..size), using out itself as the worklist, then sorts
+    private int closeAndSort(int[] out, int size) {
+        for (int i = 0; i < size; i++) {
+            int s = out[i];
+            int end = offsets[s + 1];
+            for (int e = lowerBound(s, FSA.EPSILON); e < end && labels[e] == FSA.EPSILON; e++) {
+                size = add(to[e], out, size);
+            }
+        }
+        Arrays.sort(out, 0, size);
+        return size;
+    }
+
+    /**
+     * Computes the epsilon closure of a set of states
+     * @param states states to close, only the first len are used
+     * @param len number of states
+     * @param out receives the closure sorted ascending, needs room for getStateCount() states
+     * @return number of states written to out
+     */
+    public int closure(int[] states, int len, int[] out) {
+        index();
+        newSet();
+        int size = 0;
+        for (int i = 0; i < len; i++) {
+            size = add(states[i], out, size);
+        }
+        return closeAndSort(out, size);
+    }
+
+    /**
+     * Computes the states reachable from a closed set on one symbol, closed again
+     * @param states epsilon-closed states, only the first len are used
+     * @param len number of states
+     * @param symbol symbol to move on
+     * @param out receives the result sorted ascending, needs room for getStateCount() states
+     * @return number of states written to out
+     */
+    public int step(int[] states, int len, char symbol, int[] out) {
+        index();
+        newSet();
+        int size = 0;
+        for (int i = 0; i < len; i++) {
+            int s = states[i];
+            int end = offsets[s + 1];
+            for (int e = lowerBound(s, symbol); e < end && labels[e] == symbol; e++) {
+                size = add(to[e], out, size);
+            }
+        }
+        return closeAndSort(out, size);
+    }
+
+    // computes the epsilon closure of one state, sorted ascending
+    public int[] closure(int state) {
+        int[] out = new int[stateCount];
+        return Arrays.copyOf(out, closure(new int[] { state }, 1, out));
+    }
+
+    // computes the states reachable from given state on given symbol, as FSA.next does
+    public int[] next(int state, char symbol) {
+        int[] closed = closure(state);
+        int[] out = new int[stateCount];
+        return Arrays.copyOf(out, step(closed, closed.length, symbol, out));
+    }
+
+    /*
+     * Sees if the automaton accepts the given input
+     * Simulates the set of current states, two buffers swapped every symbol
+     */
+    public boolean accepts(CharSequence input) {
+        if (startState < 0) {
+            return false;
+        }
+        int[] current = new int[stateCount];
+        int[] next = new int[stateCount];
+        current[0] = startState;
+        int size = closure(current, 1, next);
+        int[] swap = current;
+        current = next;
+        next = swap;
+
+        for (int i = 0; i < input.length() && size > 0; i++) {
+            size = step(current, size, input.charAt(i), next);
+            swap = current;
+            current = next;
+            next = swap;
+        }
+        return isAccepting(current, size);
+    }
+
+    /*
+     * Checks if the automaton is deterministic
+     * Returns false on any epsilon edge or two edges leaving a state on one symbol
+     */
+    public boolean deterministic() {
+        index();
+        for (int s = 0; s < stateCount; s++) {
+            for (int e = offsets[s]; e < offsets[s + 1]; e++) {
+                if (labels[e] == FSA.EPSILON || (e > offsets[s] && labels[e] == labels[e - 1])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts to an equivalent DFA using subset construction over the packed edges
+     * @return equivalent DFA
+     */
+    public DFA toDFA() {
+        return new SubsetConstruction().determinize(this);
+    }
+
+    /**
+     * Compiles into the bitset form, which needs stateCount^2 / 8 bytes of masks
+     * @return compiled NFA with the same state numbering
+     */
+    public CompiledNFA compile() {
+        boolean[] accepting = new boolean[stateCount];
+        for (int s = accept.nextSetBit(0); s >= 0; s = accept.nextSetBit(s + 1)) {
+            accepting[s] = true;
+        }
+        return new CompiledNFA(stateCount, startState, accepting, Arrays.copyOf(from, edgeCount),
+            Arrays.copyOf(to, edgeCount), Arrays.copyOf(labels, edgeCount));
+    }
+
+    /*
+     * Everything below:
+     * Gets the states and the CSR edge arrays.
+     */
+
+    // gets the symbol equivalence classes of the edges, computed once after the last change
+    public Alphabet getAlphabet() {
+        index();
+        if (alphabet == null) {
+            alphabet = new Alphabet(from, to, labels);
+        }
+        return alphabet;
+    }
+
+    // approximate heap used by the edge arrays, the CSR index and the scratch marks
+    public long memoryBytes() {
+        return 10L * from.length + 4L * offsets.length + 4L * mark.length
+            + (declared.size() + accept.size()) / 8;
+    }
+
+    // highest state ID + 1
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    // start state ID, -1 if none
+    public int getStartState() {
+        return startState;
+    }
+
+    public boolean isAccepting(int state) {
+        return accept.get(state);
+    }
+
+    // checks if any of the first len states accepts
+    public boolean isAccepting(int[] states, int len) {
+        for (int i = 0; i < len; i++) {
+            if (accept.get(states[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // index of the first edge leaving state, edges are sorted by label then target
+    public int edgeStart(int state) {
+        index();
+        return offsets[state];
+    }
+
+    // index just past the last edge leaving state
+    public int edgeEnd(int state) {
+        index();
+        return offsets[state + 1];
+    }
+
+    // target of an edge, valid once edgeStart or edgeEnd has indexed the edges
+    public int getTarget(int edge) {
+        return to[edge];
+    }
+
+    public char getLabel(int edge) {
+        return labels[edge];
+    }
+}
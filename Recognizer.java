@@ -0,0 +1,19 @@
+/*
+ * Compiled automaton that can test whole strings or hand out streaming matchers.
+ * Implementations are immutable, so one instance can be shared by many threads
+ * as long as each thread uses its own StreamMatcher.
+ */
+public interface Recognizer {
+    /**
+     * Sees if the automaton accepts the given input string
+     * @param input string to test
+     * @return true if accepted, false otherwise
+     */
+    boolean accepts(CharSequence input);
+
+    /**
+     * Creates a new matcher positioned at the start state
+     * @return matcher with its own state, not shared with other matchers
+     */
+    StreamMatcher matcher();
+}
@@ -0,0 +1,338 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+ * Compiles regular expressions to NFAs with Thompson's construction.
+ * Supports concatenation, alternation (|), grouping, Kleene star (*), plus (+),
+ * optional (?), character classes with ranges ([a-z0-9_]), negated classes ([^...]),
+ * any character (.), and the escapes \d \w \s \n \t \r plus escaped metacharacters.
+ *
+ * The parser is a single recursive-descent pass that appends states and edges
+ * to flat arrays, so compile time is linear in the size of the pattern (and of
+ * its expanded classes). The arrays are then loaded into an NFA, or straight
+ * into a CompiledNFA without building State/Transition objects at all.
+ *
+ * '.' and negated classes are taken relative to a universe of characters,
+ * printable ASCII plus tab by default, since every symbol becomes an edge.
+ * An instance reuses its edge arrays, so it is not safe for concurrent use.
+ */
+public class RegexCompiler {
+    private static final String DEFAULT_UNIVERSE = defaultUniverse();
+
+    private final BitSet universe; // chars '.' can match
+
+    // state of the pattern being compiled
+    private String pattern;
+    private int pos;
+    private int stateCount;
+    private int edgeCount;
+    private int[] from = new int[16];
+    private int[] to = new int[16];
+    private char[] labels = new char[16];
+
+    // constructs a compiler whose '.' matches printable ASCII and tab
+    public RegexCompiler() {
+        this(DEFAULT_UNIVERSE);
+    }
+
+    /**
+     * Constructs a compiler with a custom universe for '.' and negated classes
+     * @param universe every character '.' can match
+     */
+    public RegexCompiler(String universe) {
+        this.universe = new BitSet();
+        for (int i = 0; i < universe.length(); i++) {
+            this.universe.set(universe.charAt(i));
+        }
+        this.universe.clear(FSA.EPSILON); // reserved for epsilon edges
+    }
+
+    // printable ASCII and tab
+    private static String defaultUniverse() {
+        StringBuilder sb = new StringBuilder("\t");
+        for (char c = ' '; c <= '~'; c++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compiles a pattern to an NFA, state 0 is the start and the last state accepts
+     * @param regex pattern to compile
+     * @return NFA for the pattern
+     * @throws IllegalArgumentException if the pattern is malformed
+     */
+    public NFA compile(String regex) {
+        int[] fragment = parse(regex);
+        NFA nfa = new NFA();
+        for (int s = 0; s < stateCount; s++) {
+            nfa.addState(s, s == fragment[0], s == fragment[1]);
+        }
+        for (int e = 0; e < edgeCount; e++) {
+            nfa.addTransition(from[e], to[e], labels[e]);
+        }
+        return nfa;
+    }
+
+    /**
+     * Compiles a pattern straight to a CompiledNFA, skipping the NFA object graph
+     * @param regex pattern to compile
+     * @return compiled NFA for the pattern
+     * @throws IllegalArgumentException if the pattern is malformed
+     */
+    public CompiledNFA compileToBitsets(String regex) {
+        int[] fragment = parse(regex);
+        boolean[] accepting = new boolean[stateCount];
+        accepting[fragment[1]] = true;
+        return new CompiledNFA(stateCount, fragment[0], accepting,
+            Arrays.copyOf(from, edgeCount), Arrays.copyOf(to, edgeCount), Arrays.copyOf(labels, edgeCount));
+    }
+
+    // parses the whole pattern, returns {start, accept} of its fragment
+    private int[] parse(String regex) {
+        pattern = regex;
+        pos = 0;
+        stateCount = 0;
+        edgeCount = 0;
+        int[] fragment = alternation();
+        if (pos < pattern.length()) {
+            throw error("Unexpected '" + pattern.charAt(pos) + "'");
+        }
+        return fragment;
+    }
+
+    // alternation := concatenation ('|' concatenation)*
+    private int[] alternation() {
+        int[] left = concatenation();
+        while (peek('|')) {
+            pos++;
+            int[] right = concatenation();
+            int start = newState();
+            int end = newState();
+            edge(start, left[0], FSA.EPSILON);
+            edge(start, right[0], FSA.EPSILON);
+            edge(left[1], end, FSA.EPSILON);
+            edge(right[1], end, FSA.EPSILON);
+            left = new int[] { start, end };
+        }
+        return left;
+    }
+
+    // concatenation := repetition*, empty matches the empty string
+    private int[] concatenation() {
+        int[] result = null;
+        while (pos < pattern.length() && !peek('|') && !peek(')')) {
+            int[] next = repetition();
+            if (result == null) {
+                result = next;
+            } else {
+                edge(result[1], next[0], FSA.EPSILON);
+                result = new int[] { result[0], next[1] };
+            }
+        }
+        if (result == null) {
+            int start = newState();
+            int end = newState();
+            edge(start, end, FSA.EPSILON);
+            result = new int[] { start, end };
+        }
+        return result;
+    }
+
+    // repetition := atom ('*' | '+' | '?')*
+    private int[] repetition() {
+        int[] f = atom();
+        while (peek('*') || peek('+') || peek('?')) {
+            char op = pattern.charAt(pos++);
+            int start = newState();
+            int end = newState();
+            edge(start, f[0], FSA.EPSILON);
+            edge(f[1], end, FSA.EPSILON);
+            if (op != '+') {
+                edge(start, end, FSA.EPSILON); // zero times
+            }
+            if (op != '?') {
+                edge(f[1], f[0], FSA.EPSILON); // again
+            }
+            f = new int[] { start, end };
+        }
+        return f;
+    }
+
+    // atom := '(' alternation ')' | '[' class ']' | '.' | escape | literal
+    private int[] atom() {
+        char c = pattern.charAt(pos);
+        switch (c) {
+            case '(': {
+                pos++;
+                int[] inner = alternation();
+                if (!peek(')')) {
+                    throw error("Missing ')'");
+                }
+                pos++;
+                return inner;
+            }
+            case '[':
+                pos++;
+                return symbols(characterClass());
+            case '.':
+                pos++;
+                return symbols(universe);
+            case '*':
+            case '+':
+            case '?':
+                throw error("Nothing to repeat before '" + c + "'");
+            case '\\': {
+                pos++;
+                BitSet set = new BitSet();
+                escape(set);
+                return symbols(set);
+            }
+            default:
+                pos++;
+                return symbol(c);
+        }
+    }
+
+    // parses the inside of [...] up to and including ']'
+    private BitSet characterClass() {
+        BitSet set = new BitSet();
+        boolean negated = peek('^');
+        if (negated) {
+            pos++;
+        }
+        boolean first = true;
+        while (pos < pattern.length() && (first || !peek(']'))) {
+            first = false;
+            char low;
+            if (peek('\\')) {
+                pos++;
+                if (escape(set)) {
+                    continue; // \d, \w or \s cannot start a range
+                }
+                low = escapedChar(pattern.charAt(pos - 1));
+            } else {
+                low = pattern.charAt(pos++);
+            }
+            if (peek('-') && pos + 1 < pattern.length() && pattern.charAt(pos + 1) != ']') {
+                pos++;
+                char high = pattern.charAt(pos++);
+                if (high == '\\') {
+                    if (pos >= pattern.length()) {
+                        throw error("Pattern ends inside escape");
+                    }
+                    high = escapedChar(pattern.charAt(pos++));
+                }
+                if (high < low) {
+                    throw error("Range out of order " + low + "-" + high);
+                }
+                set.set(low, high + 1);
+            } else {
+                set.set(low);
+            }
+        }
+        if (!peek(']')) {
+            throw error("Missing ']'");
+        }
+        pos++;
+        if (negated) {
+            BitSet complement = (BitSet) universe.clone();
+            complement.andNot(set);
+            return complement;
+        }
+        return set;
+    }
+
+    // parses the escape after a backslash into set, returns true for a class escape
+    private boolean escape(BitSet set) {
+        if (pos >= pattern.length()) {
+            throw error("Pattern ends inside escape");
+        }
+        char c = pattern.charAt(pos++);
+        switch (c) {
+            case 'd':
+                set.set('0', '9' + 1);
+                return true;
+            case 'w':
+                set.set('a', 'z' + 1);
+                set.set('A', 'Z' + 1);
+                set.set('0', '9' + 1);
+                set.set('_');
+                return true;
+            case 's':
+                set.set(' ');
+                set.set('\t');
+                set.set('\n');
+                set.set('\r');
+                set.set('\f');
+                return true;
+            default:
+                set.set(escapedChar(c));
+                return false;
+        }
+    }
+
+    // maps the char after a backslash to the literal it stands for
+    private static char escapedChar(char c) {
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            default:
+                return c; // escaped metacharacter or literal
+        }
+    }
+
+    // fragment matching a single symbol
+    private int[] symbol(char c) {
+        if (c == FSA.EPSILON) {
+            throw error("Epsilon symbol cannot be matched literally");
+        }
+        int start = newState();
+        int end = newState();
+        edge(start, end, c);
+        return new int[] { start, end };
+    }
+
+    // fragment matching any one symbol of a set
+    private int[] symbols(BitSet set) {
+        int start = newState();
+        int end = newState();
+        for (int c = set.nextSetBit(0); c >= 0; c = set.nextSetBit(c + 1)) {
+            if (c != FSA.EPSILON) {
+                edge(start, end, (char) c);
+            }
+        }
+        return new int[] { start, end };
+    }
+
+    private int newState() {
+        return stateCount++;
+    }
+
+    // appends an edge, growing the arrays by doubling
+    private void edge(int source, int target, char label) {
+        if (edgeCount == labels.length) {
+            from = Arrays.copyOf(from, edgeCount * 2);
+            to = Arrays.copyOf(to, edgeCount * 2);
+            labels = Arrays.copyOf(labels, edgeCount * 2);
+        }
+        from[edgeCount] = source;
+        to[edgeCount] = target;
+        labels[edgeCount] = label;
+        edgeCount++;
+    }
+
+    private boolean peek(char c) {
+        return pos < pattern.length() && pattern.charAt(pos) == c;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at index " + pos + " in pattern: " + pattern);
+    }
+}
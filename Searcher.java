@@ -0,0 +1,513 @@
+import java.util.Arrays;
+
+/*
+ * Finds the spans of a text that an automaton accepts, instead of testing
+ * the whole text. Two lazily built DFAs do the work, as in RE2:
+ *  - a forward DFA, unanchored, that reads the text once and stops at the
+ *    end of a match
+ *  - a reverse DFA, built from the automaton with every edge flipped, that
+ *    reads backwards from that end and finds where the match starts
+ *
+ * In the leftmost modes every state of the forward DFA keeps its NFA states
+ * grouped by the position their thread started at, oldest group first, and a
+ * state reached by an older thread is dropped from the younger groups. Once
+ * a group accepts, the younger groups are dropped and no new threads start,
+ * so the scan ends as soon as no older thread is left that could still win.
+ *
+ * Modes:
+ *  - LEFTMOST_FIRST: leftmost start, shortest end. An automaton has no order
+ *    between its alternatives, so the first match is the first end reached
+ *    from the leftmost start.
+ *  - LEFTMOST_LONGEST: leftmost start, longest end (POSIX).
+ *  - ALL_OVERLAPPING: every position where a match ends, with the leftmost
+ *    start of a match ending there.
+ * Leftmost matches never overlap; after an empty match the search goes on
+ * one character later, as java.util.regex.Matcher.find does.
+ *
+ * Matches are reported through a SpanHandler, or pulled from a Cursor;
+ * neither allocates per match. Not safe for concurrent use: scanning fills
+ * the caches.
+ */
+public class Searcher {
+    private static final int DEFAULT_MAX_STATES = 4096;
+
+    // how matches are picked, see the class comment
+    public enum Mode {
+        LEFTMOST_FIRST,
+        LEFTMOST_LONGEST,
+        ALL_OVERLAPPING
+    }
+
+    // receives each match, returns false to stop the search
+    public interface SpanHandler {
+        boolean onMatch(int start, int end);
+    }
+
+    private final Mode mode;
+    private final ScanDFA forward; // finds match ends
+    private final ScanDFA reverse; // finds match starts
+
+    // builds a searcher with caches of up to 4096 DFA states each way
+    public Searcher(FSA fsa, Mode mode) {
+        this(fsa, mode, DEFAULT_MAX_STATES);
+    }
+
+    /**
+     * Builds a searcher for the language of an automaton
+     * @param fsa NFA or DFA whose matches are searched for
+     * @param mode how matches are picked
+     * @param maxStates largest number of DFA states cached in each direction
+     */
+    public Searcher(FSA fsa, Mode mode, int maxStates) {
+        if (maxStates < 2) {
+            throw new IllegalArgumentException("Search cache needs room for at least 2 states");
+        }
+        this.mode = mode;
+
+        // dense state IDs, as CompiledNFA numbers them
+        int n = fsa.getStates().size();
+        int[] ids = new int[n];
+        int i = 0;
+        for (State s : fsa.getStates()) {
+            ids[i++] = s.getId();
+        }
+        Arrays.sort(ids);
+        boolean[] accepting = new boolean[n];
+        for (State s : fsa.getAcceptStates()) {
+            accepting[Arrays.binarySearch(ids, s.getId())] = true;
+        }
+        int start = fsa.getStartState() == null ? -1 : Arrays.binarySearch(ids, fsa.getStartState().getId());
+
+        // forward edges, then the same edges flipped with a new start state
+        // (ID n) that has an epsilon edge to every accept state
+        int m = fsa.getTransitions().size();
+        int[] from = new int[m];
+        int[] to = new int[m];
+        char[] labels = new char[m];
+        int e = 0;
+        for (Transition t : fsa.getTransitions()) {
+            from[e] = Arrays.binarySearch(ids, t.getFromState().getId());
+            to[e] = Arrays.binarySearch(ids, t.getToState().getId());
+            labels[e++] = t.isEpsilon() ? FSA.EPSILON : t.getSymbol();
+        }
+        int accepts = fsa.getAcceptStates().size();
+        int[] reverseFrom = Arrays.copyOf(to, m + accepts);
+        int[] reverseTo = Arrays.copyOf(from, m + accepts);
+        char[] reverseLabels = Arrays.copyOf(labels, m + accepts);
+        for (int s = 0; s < n; s++) {
+            if (accepting[s]) {
+                reverseFrom[e] = n;
+                reverseTo[e] = s;
+                reverseLabels[e++] = FSA.EPSILON;
+            }
+        }
+        boolean[] reverseAccepting = new boolean[n + 1];
+        if (start >= 0) {
+            reverseAccepting[start] = true;
+        }
+
+        int kind = mode == Mode.LEFTMOST_FIRST ? ScanDFA.FIRST
+            : mode == Mode.LEFTMOST_LONGEST ? ScanDFA.LONGEST : ScanDFA.OVERLAPPING;
+        forward = new ScanDFA(new CompiledNFA(n, start, accepting, from, to, labels), kind, maxStates);
+        reverse = new ScanDFA(new CompiledNFA(n + 1, n, reverseAccepting, reverseFrom, reverseTo, reverseLabels),
+            ScanDFA.ANCHORED, maxStates);
+    }
+
+    /**
+     * Creates a cursor over the matches of a text
+     * @param text text to search
+     * @return cursor positioned before the first match
+     */
+    public Cursor cursor(CharSequence text) {
+        return new Cursor(text);
+    }
+
+    /**
+     * Reports every match of a text, in order of their ends
+     * @param text text to search
+     * @param handler receives each match, returns false to stop early
+     * @return number of matches passed to the handler
+     */
+    public int search(CharSequence text, SpanHandler handler) {
+        Cursor cursor = new Cursor(text);
+        int count = 0;
+        while (cursor.find()) {
+            count++;
+            if (!handler.onMatch(cursor.start, cursor.end)) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the matches of a text
+     * @param text text to search
+     * @return number of matches
+     */
+    public int count(CharSequence text) {
+        Cursor cursor = new Cursor(text);
+        int count = 0;
+        while (cursor.find()) {
+            count++;
+        }
+        return count;
+    }
+
+    // finds the start of the leftmost match ending at end, reading back no further than from
+    private int startOf(CharSequence text, int from, int end) {
+        int state = reverse.start();
+        int start = reverse.isMatch(state) ? end : -1;
+        for (int i = end; i > from && !reverse.isDone(state); ) {
+            i = reverse.scanBack(text, i, from, state, ScanDFA.MATCH | ScanDFA.DONE);
+            state = reverse.last;
+            if (reverse.isMatch(state)) {
+                start = i;
+            }
+        }
+        return start;
+    }
+
+    /*
+     * Everything below:
+     * Gets the mode and cache statistics.
+     */
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    // number of DFA states currently cached, both directions
+    public int getCachedStates() {
+        return forward.getCachedStates() + reverse.getCachedStates();
+    }
+
+    public long getCacheClears() {
+        return forward.getCacheClears() + reverse.getCacheClears();
+    }
+
+    /*
+     * Walks the matches of one text, like java.util.regex.Matcher.find.
+     * start() and end() describe the last match found.
+     * An ALL_OVERLAPPING cursor keeps its forward DFA state between calls,
+     * so it fails if another scan of the same searcher cleared the cache.
+     */
+    public class Cursor {
+        private CharSequence text;
+        private int at;          // where the next search begins
+        private int start = -1;
+        private int end = -1;
+
+        // ALL_OVERLAPPING only: forward state after reading text[0..at)
+        private int state = -1;
+        private long clears;     // forward cache clears when state was taken
+
+        private Cursor(CharSequence text) {
+            reset(text);
+        }
+
+        // starts over on a new text, reusing this cursor
+        public void reset(CharSequence text) {
+            this.text = text;
+            at = 0;
+            start = -1;
+            end = -1;
+            state = -1;
+        }
+
+        /**
+         * Moves to the next match
+         * @return true if there is one, then start() and end() describe it
+         * @throws IllegalStateException if another scan invalidated an overlapping cursor
+         */
+        public boolean find() {
+            boolean found = mode == Mode.ALL_OVERLAPPING ? findOverlapping() : findLeftmost();
+            if (!found) {
+                start = -1;
+                end = -1;
+            }
+            return found;
+        }
+
+        // scans forward from at to the end of the leftmost match, then back to its start
+        private boolean findLeftmost() {
+            int len = text.length();
+            if (at > len) {
+                return false;
+            }
+            int current = forward.start();
+            int matchEnd = forward.isMatch(current) ? at : -1;
+            for (int i = at; i < len && !forward.isDone(current); ) {
+                i = forward.scan(text, i, len, current, ScanDFA.MATCH | ScanDFA.DONE);
+                current = forward.last;
+                if (forward.isMatch(current)) {
+                    matchEnd = i;
+                }
+            }
+            if (matchEnd < 0) {
+                at = len + 1;
+                return false;
+            }
+            start = startOf(text, at, matchEnd);
+            end = matchEnd;
+            at = end == start ? end + 1 : end; // step past an empty match
+            return true;
+        }
+
+        // steps the forward DFA to the next position where a match ends
+        private boolean findOverlapping() {
+            int len = text.length();
+            if (state < 0) {
+                if (at > 0) {
+                    return false; // already ran off the end
+                }
+                state = forward.start();
+                clears = forward.getCacheClears();
+                if (forward.isMatch(state)) {
+                    return matchAt(0);
+                }
+            } else if (clears != forward.getCacheClears()) {
+                throw new IllegalStateException("Search cache was cleared by another scan of this Searcher");
+            }
+            while (at < len) {
+                at = forward.scan(text, at, len, state, ScanDFA.MATCH);
+                state = forward.last;
+                if (forward.isMatch(state)) {
+                    clears = forward.getCacheClears();
+                    return matchAt(at);
+                }
+            }
+            at = len + 1;
+            return false;
+        }
+
+        private boolean matchAt(int position) {
+            start = startOf(text, 0, position);
+            end = position;
+            return true;
+        }
+
+        // start of the last match, -1 if there is none
+        public int start() {
+            return start;
+        }
+
+        // end of the last match (exclusive), -1 if there is none
+        public int end() {
+            return end;
+        }
+    }
+
+    /*
+     * DFA built on the fly for one scan direction, in a LazyCache like LazyDFA.
+     * A state is a list of groups of NFA states, oldest first. The key stored
+     * in the SubsetTable is the flags followed by each group's sorted states
+     * and an END marker, and the payload of a state is its MATCH and DONE
+     * flags. ANCHORED and OVERLAPPING states have one group.
+     * A column past the alphabet stands for every symbol outside it.
+     */
+    private static class ScanDFA extends LazyCache {
+        static final int ANCHORED = 0;    // one run from the start state
+        static final int OVERLAPPING = 1; // a new run at every position, merged into one group
+        static final int FIRST = 2;       // leftmost start, groups end at their first accept
+        static final int LONGEST = 3;     // leftmost start, groups run until they die
+
+        private static final int END = -1;     // closes a group in a key
+        private static final int COMMITTED = 1; // a match was seen, no new runs start
+        private static final int MATCH = 2;     // a match ends at this state
+        private static final int DONE = 4;      // nothing left that could match
+
+        private final int[] columns; // symbol -> column, symbols past the end use width - 1
+        private final int kind;
+        private final long[] startMask;
+
+        private byte[] flags;      // state -> MATCH and DONE bits
+        int last;                  // state reached by the last scan
+
+        // scratch space for computing a transition
+        private final long[] taken; // NFA states held by older groups
+        private int keyLength;
+
+        ScanDFA(CompiledNFA nfa, int kind, int maxStates) {
+            // columns plus one for symbols outside the alphabet; key holds flags and an END per group
+            super(nfa, nfa.getAlphabet().size() + 1, 2 * nfa.getStateCount() + 1, maxStates);
+            int limit = 0;
+            for (int i = 0; i < alphabet.symbolCount(); i++) {
+                limit = Math.max(limit, alphabet.symbol(i) + 1);
+            }
+            columns = new int[limit];
+            for (int c = 0; c < limit; c++) {
+                int col = alphabet.columnOf((char) c);
+                columns[c] = col < 0 ? width - 1 : col;
+            }
+            this.kind = kind;
+            startMask = nfa.getStartMask();
+            taken = new long[nfa.getWords()];
+            clearCache();
+        }
+
+        // gets the state before any input, re-adding it after a clear
+        int start() {
+            if (startState == UNKNOWN) {
+                beginKey();
+                System.arraycopy(startMask, 0, next, 0, next.length);
+                boolean match = offer(next);
+                startState = intern(match, match);
+            }
+            return startState;
+        }
+
+        /**
+         * Steps over text[from..to) until a state with one of the stop flags
+         * @return position after the last symbol read, the state reached is left in last
+         */
+        int scan(CharSequence text, int from, int to, int state, int stop) {
+            int[] cols = columns;
+            int[] delta = transitions; // locals, so the loop does not reload the fields
+            byte[] info = flags;
+            int i = from;
+            while (i < to) {
+                char c = text.charAt(i++);
+                int slot = state * width + (c < cols.length ? cols[c] : width - 1);
+                state = delta[slot];
+                if (state == UNKNOWN) {
+                    state = computeTransition(slot / width, slot);
+                    delta = transitions;
+                    info = flags;
+                }
+                if ((info[state] & stop) != 0) {
+                    break;
+                }
+            }
+            last = state;
+            return i;
+        }
+
+        // same as scan, but steps backwards over text[to..from) starting at from - 1
+        int scanBack(CharSequence text, int from, int to, int state, int stop) {
+            int[] cols = columns;
+            int[] delta = transitions;
+            byte[] info = flags;
+            int i = from;
+            while (i > to) {
+                char c = text.charAt(--i);
+                int slot = state * width + (c < cols.length ? cols[c] : width - 1);
+                state = delta[slot];
+                if (state == UNKNOWN) {
+                    state = computeTransition(slot / width, slot);
+                    delta = transitions;
+                    info = flags;
+                }
+                if ((info[state] & stop) != 0) {
+                    break;
+                }
+            }
+            last = state;
+            return i;
+        }
+
+        boolean isMatch(int state) {
+            return (flags[state] & MATCH) != 0;
+        }
+
+        boolean isDone(int state) {
+            return (flags[state] & DONE) != 0;
+        }
+
+        // steps every group of a state, dropping states older groups already hold
+        private int computeTransition(int state, int slot) {
+            int col = slot - state * width;
+            int[] from = table.get(state);
+            boolean committed = (from[0] & COMMITTED) != 0;
+            beginKey();
+            boolean match = false;
+            for (int i = 1; i < from.length && !match; i++) {
+                Arrays.fill(current, 0L);
+                for (; from[i] != END; i++) {
+                    current[from[i] >>> 6] |= 1L << from[i];
+                }
+                if (col == width - 1 || !nfa.stepColumn(current, col, next)) {
+                    Arrays.fill(next, 0L);
+                }
+                if (kind == OVERLAPPING) {
+                    or(next, startMask); // a new run starts here and shares the one group
+                }
+                match = offer(next); // younger groups are dropped once one accepts
+            }
+            if (!committed && !match && (kind == FIRST || kind == LONGEST)) {
+                System.arraycopy(startMask, 0, next, 0, next.length); // a new run starts here
+                match = offer(next);
+            }
+
+            long clearsBefore = getCacheClears();
+            int to = intern(committed || match, match);
+            if (getCacheClears() == clearsBefore) {
+                transitions[slot] = to; // after a clear the source state is gone, only the target is kept
+            }
+            return to;
+        }
+
+        // starts an empty key, with no states held by older groups
+        private void beginKey() {
+            Arrays.fill(taken, 0L);
+            keyLength = 1;
+        }
+
+        // appends a group to the key, minus the states older groups hold; returns true if it accepts
+        private boolean offer(long[] group) {
+            boolean any = false;
+            for (int w = 0; w < group.length; w++) {
+                group[w] &= ~taken[w];
+                taken[w] |= group[w];
+                any |= group[w] != 0;
+            }
+            if (!any) {
+                return false;
+            }
+            boolean match = nfa.isAccepting(group);
+            if (match && kind == FIRST) {
+                return true; // the group reached its first end, it has nothing more to report
+            }
+            for (int w = 0; w < group.length; w++) {
+                long bits = group[w];
+                while (bits != 0) {
+                    key[keyLength++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                }
+            }
+            key[keyLength++] = END;
+            return match;
+        }
+
+        // sets the flags of the key and finds its state, adding it (after a clear if full) when new
+        private int intern(boolean committed, boolean match) {
+            boolean leftmost = kind == FIRST || kind == LONGEST;
+            key[0] = (leftmost && committed ? COMMITTED : 0) | (match ? MATCH : 0);
+            int hash = SubsetTable.hash(key, keyLength);
+            int id = table.find(key, keyLength, hash);
+            if (id >= 0) {
+                return id;
+            }
+            if (table.size() >= maxStates) {
+                clearCache();
+            }
+            id = addState(key, keyLength, hash);
+            // with no groups left only a committed leftmost scan has an answer, the rest are dead
+            boolean done = keyLength == 1 && (committed || !leftmost);
+            flags[id] = (byte) ((match ? MATCH : 0) | (done ? DONE : 0));
+            return id;
+        }
+
+        @Override
+        void resizePayload(int capacity) {
+            flags = flags == null ? new byte[capacity] : Arrays.copyOf(flags, capacity);
+        }
+
+        // ORs src into dest
+        private static void or(long[] dest, long[] src) {
+            for (int w = 0; w < dest.length; w++) {
+                dest[w] |= src[w];
+            }
+        }
+    }
+}
@@ -4,9 +4,9 @@
 */
 
 public class State {
-    private int id; // unique ID for state
-    private boolean isStart; // true if start state
-    private boolean isAccept; // true if accept state
+    private final int id; // unique ID for state
+    private final boolean isStart; // true if start state
+    private final boolean isAccept; // true if accept state
 
     // contructs new state with given ID, start, and accept status
     public State (int id, boolean isStart, boolean isAccept) {
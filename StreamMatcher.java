@@ -0,0 +1,25 @@
+/*
+ * Incremental matcher that consumes input in pieces.
+ * Keeps only the current automaton state, so memory use does not depend on
+ * how much input has been fed. Once the matcher is dead (no state can be
+ * reached any more) further input is ignored and it can never accept.
+ */
+public interface StreamMatcher {
+    // goes back to the start state, ready for new input
+    void reset();
+
+    // consumes one character
+    void feed(char symbol);
+
+    // consumes every character of a sequence
+    void feed(CharSequence input);
+
+    // consumes len characters of an array starting at off
+    void feed(char[] input, int off, int len);
+
+    // checks if the input fed so far is accepted
+    boolean isAccepting();
+
+    // checks if no continuation of the input fed so far can be accepted
+    boolean isDead();
+}
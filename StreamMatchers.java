@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Helpers that run a StreamMatcher over whole inputs without building a String.
+ * Each helper resets the matcher, feeds the input in fixed-size pieces, stops
+ * reading as soon as the matcher is dead, and reports whether it accepts.
+ */
+public class StreamMatchers {
+    private static final int CHUNK_CHARS = 8192;
+    private static final long MAP_WINDOW = 64L << 20; // bytes mapped at once
+
+    private StreamMatchers() {
+    }
+
+    /**
+     * Matches everything a Reader produces
+     * @param matcher matcher to run, reset first
+     * @param reader input, read to the end or until the matcher is dead
+     * @return true if the input is accepted
+     */
+    public static boolean matches(StreamMatcher matcher, Reader reader) throws IOException {
+        matcher.reset();
+        char[] chunk = new char[CHUNK_CHARS];
+        int read;
+        while (!matcher.isDead() && (read = reader.read(chunk, 0, chunk.length)) != -1) {
+            matcher.feed(chunk, 0, read);
+        }
+        return matcher.isAccepting();
+    }
+
+    /**
+     * Matches the remaining characters of a CharBuffer, without moving its position
+     * @param matcher matcher to run, reset first
+     * @param input characters between position and limit
+     * @return true if the input is accepted
+     */
+    public static boolean matches(StreamMatcher matcher, CharBuffer input) {
+        matcher.reset();
+        if (input.hasArray()) {
+            matcher.feed(input.array(), input.arrayOffset() + input.position(), input.remaining());
+        } else {
+            for (int i = input.position(); i < input.limit() && !matcher.isDead(); i++) {
+                matcher.feed(input.get(i));
+            }
+        }
+        return matcher.isAccepting();
+    }
+
+    /**
+     * Matches a file by memory-mapping it window by window and decoding into a fixed buffer
+     * @param matcher matcher to run, reset first
+     * @param file file to read
+     * @param charset encoding of the file
+     * @return true if the file's contents are accepted
+     * @throws IOException if the file cannot be read or is not valid in the charset
+     */
+    public static boolean matches(StreamMatcher matcher, Path file, Charset charset) throws IOException {
+        matcher.reset();
+        CharsetDecoder decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer chars = CharBuffer.allocate(CHUNK_CHARS);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long offset = 0;
+            boolean last = size == 0;
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAP_WINDOW));
+
+            while (!matcher.isDead()) {
+                CoderResult result = decoder.decode(window, chars, last);
+                feed(matcher, chars);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                if (result.isOverflow()) {
+                    continue; // more to decode from this window
+                }
+                if (last) {
+                    break;
+                }
+
+                // window used up, map the next one starting at any undecoded tail bytes
+                offset += window.position();
+                long length = Math.min(size - offset, MAP_WINDOW);
+                last = offset + length == size;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            }
+
+            // flush anything the decoder still holds
+            while (!matcher.isDead() && decoder.flush(chars).isOverflow()) {
+                feed(matcher, chars);
+            }
+            feed(matcher, chars);
+        }
+        return matcher.isAccepting();
+    }
+
+    // feeds the decoded characters and empties the buffer for the next round
+    private static void feed(StreamMatcher matcher, CharBuffer chars) {
+        chars.flip();
+        matcher.feed(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+        chars.clear();
+    }
+}
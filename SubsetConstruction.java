@@ -0,0 +1,439 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Powerset (subset) construction from an NFA to an equivalent DFA.
+ * Works on the CompiledNFA bitsets, or on the CSR edges of a PackedFSA for
+ * automata too large for bitsets: each DFA state is a set of NFA states,
+ * interned in a SubsetTable as a sorted int[]. Both leave the states that
+ * cannot reach an accept state out of every set, so they give the same DFA.
+ * Successors are computed once per alphabet equivalence class, not once per
+ * symbol. DFA state IDs are assigned in breadth-first order, so the table
+ * itself doubles as the worklist.
+ * Optional limits on DFA state count and memory stop a blow-up early. The
+ * memory limit covers the compiled NFA as well as the table: determinize(FSA)
+ * only builds bitsets, which take stateCount^2 / 8 bytes, when they fit in
+ * the limit and in MAX_BITSET_BYTES, and otherwise works on PackedFSA edges.
+ *
+ * The parallel mode expands one breadth-first level at a time: every set of
+ * the level is stepped on every column concurrently, with successors looked up
+ * in the intern table, which is read-only during that phase. The successors not
+ * found are then added in the order the sequential loop would add them, so the
+ * DFA comes out with exactly the same state numbering. Automata too large for
+ * bitsets are converted sequentially over packed edges instead.
+ */
+public class SubsetConstruction {
+    private static final int MIN_SLICE = 64; // sets per task before splitting stops
+    private static final int NONE = -1;      // no transition, the successor set is empty
+    private static final int NEW = -2;       // successor set not in the table before this level
+    // largest bitset form determinize(FSA) builds, bigger NFAs use the packed edges
+    static final long MAX_BITSET_BYTES = 64L << 20;
+    private final int maxStates;
+    private final long maxMemoryBytes;
+
+    // constructs a subset construction without limits
+    public SubsetConstruction() {
+        this(Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a subset construction that fails fast past the given limits
+     * @param maxStates largest number of DFA states allowed
+     * @param maxMemoryBytes largest approximate size of the compiled NFA and subset table allowed
+     */
+    public SubsetConstruction(int maxStates, long maxMemoryBytes) {
+        if (maxStates < 1 || maxMemoryBytes < 1) {
+            throw new IllegalArgumentException("Limits must be positive");
+        }
+        this.maxStates = maxStates;
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * Converts an automaton to an equivalent DFA, over bitsets if they are small
+     * enough and over packed edges otherwise
+     * @param fsa automaton to convert
+     * @return equivalent DFA, states with no outgoing set are omitted (reject)
+     * @throws IllegalStateException if a limit is exceeded
+     */
+    public DFA determinize(FSA fsa) {
+        if (!fitsBitsets(fsa)) {
+            return determinize(new PackedFSA(fsa));
+        }
+        return determinize(new CompiledNFA(fsa));
+    }
+
+    /**
+     * Converts an automaton to an equivalent DFA, expanding each level on a pool
+     * when its bitsets are small enough, and sequentially over packed edges otherwise
+     * @param fsa automaton to convert
+     * @param pool pool to step the sets of a level on
+     * @return the same DFA as determinize(fsa), state for state
+     * @throws IllegalStateException if a limit is exceeded
+     */
+    public DFA determinize(FSA fsa, ForkJoinPool pool) {
+        if (!fitsBitsets(fsa)) {
+            return determinize(new PackedFSA(fsa));
+        }
+        return determinize(new CompiledNFA(fsa), pool);
+    }
+
+    // checks if the bitset form of an automaton fits in MAX_BITSET_BYTES and the memory limit
+    private boolean fitsBitsets(FSA fsa) {
+        long bitsetBytes = CompiledNFA.estimateBytes(fsa.getStates().size(), fsa.getTransitions().size(),
+            fsa.getAlphabet().size());
+        return bitsetBytes <= MAX_BITSET_BYTES && bitsetBytes <= maxMemoryBytes;
+    }
+
+    /**
+     * Converts a compiled NFA to an equivalent DFA
+     * @param nfa compiled NFA to convert
+     * @return equivalent DFA with states numbered in breadth-first order
+     * @throws IllegalStateException if a limit is exceeded
+     */
+    public DFA determinize(CompiledNFA nfa) {
+        long started = Metrics.ENABLED ? System.nanoTime() : 0L;
+        DFA dfa = new DFA();
+        SubsetTable table = new SubsetTable();
+        Alphabet alphabet = nfa.getAlphabet();
+
+        long[] current = new long[nfa.getWords()];
+        long[] next = new long[nfa.getWords()];
+        int[] key = new int[nfa.getStateCount()];
+        long nfaBytes = nfa.memoryBytes();
+        checkLimits(table, nfaBytes);
+
+        // start with epsilon closure of start state
+        long[] start = nfa.getStartMask();
+        int len = toKey(start, key);
+        table.add(key, len, SubsetTable.hash(key, len));
+        dfa.addState(0, true, nfa.isAccepting(start));
+
+        // IDs are handed out in order, so walking them in order is the worklist
+        for (int currentId = 0; currentId < table.size(); currentId++) {
+            toBits(table.get(currentId), current);
+
+            for (int col = 0; col < alphabet.size(); col++) {
+                if (!nfa.stepColumn(current, col, next)) {
+                    continue; // empty set, no transition
+                }
+
+                len = toKey(next, key);
+                int hash = SubsetTable.hash(key, len);
+                int toId = table.find(key, len, hash);
+                if (toId < 0) {
+                    checkLimits(table, nfaBytes);
+                    toId = table.add(key, len, hash);
+                    dfa.addState(toId, false, nfa.isAccepting(next));
+                }
+                addTransitions(dfa, currentId, toId, alphabet, col);
+            }
+        }
+
+        if (Metrics.ENABLED) {
+            Metrics.conversion(nfa.getStateCount(), table.size(), started);
+        }
+        return dfa;
+    }
+
+    /**
+     * Converts a compiled NFA to an equivalent DFA, expanding each level on a pool
+     * @param nfa compiled NFA to convert
+     * @param pool pool to step the sets of a level on
+     * @return the same DFA as determinize(nfa), state for state
+     * @throws IllegalStateException if a limit is exceeded
+     */
+    public DFA determinize(CompiledNFA nfa, ForkJoinPool pool) {
+        long started = Metrics.ENABLED ? System.nanoTime() : 0L;
+        DFA dfa = new DFA();
+        SubsetTable table = new SubsetTable();
+        Alphabet alphabet = nfa.getAlphabet();
+        int width = alphabet.size();
+        int[] key = new int[nfa.getStateCount()];
+        long nfaBytes = nfa.memoryBytes();
+        checkLimits(table, nfaBytes);
+
+        long[] start = nfa.getStartMask();
+        int len = toKey(start, key);
+        table.add(key, len, SubsetTable.hash(key, len));
+        dfa.addState(0, true, nfa.isAccepting(start));
+
+        // every level is the range of IDs added while merging the level before it
+        for (int lo = 0, hi = table.size(); lo < hi; lo = hi, hi = table.size()) {
+            Level level = new Level(nfa, table, lo, hi);
+            int slice = Math.max(MIN_SLICE, (hi - lo) / (pool.getParallelism() * 8));
+            if (hi - lo <= slice) {
+                level.expand(lo, hi); // too small to be worth a task
+            } else {
+                pool.invoke(new Expand(level, lo, hi, slice));
+            }
+
+            // merge in ID then column order, as the sequential loop would
+            for (int currentId = lo; currentId < hi; currentId++) {
+                for (int col = 0; col < width; col++) {
+                    int slot = (currentId - lo) * width + col;
+                    int toId = level.targets[slot];
+                    if (toId == NONE) {
+                        continue;
+                    }
+                    if (toId == NEW) {
+                        int[] successor = level.keys[slot];
+                        int hash = level.hashes[slot];
+                        toId = table.find(successor, successor.length, hash);
+                        if (toId < 0) {
+                            checkLimits(table, nfaBytes);
+                            toId = table.add(successor, successor.length, hash);
+                            dfa.addState(toId, false, level.accepting[slot]);
+                        }
+                    }
+                    addTransitions(dfa, currentId, toId, alphabet, col);
+                }
+            }
+        }
+
+        if (Metrics.ENABLED) {
+            Metrics.conversion(nfa.getStateCount(), table.size(), started);
+        }
+        return dfa;
+    }
+
+    /**
+     * Converts a packed automaton to an equivalent DFA without building bitsets,
+     * so memory follows the number of edges rather than the square of the states
+     * @param fsa packed automaton to convert
+     * @return equivalent DFA with states numbered in breadth-first order
+     * @throws IllegalStateException if a limit is exceeded
+     */
+    public DFA determinize(PackedFSA fsa) {
+        long started = Metrics.ENABLED ? System.nanoTime() : 0L;
+        DFA dfa = new DFA();
+        SubsetTable table = new SubsetTable();
+        Alphabet alphabet = fsa.getAlphabet();
+        int[] key = new int[fsa.getStateCount()];
+        int[] columns = new int[alphabet.size()];
+        boolean[] seen = new boolean[alphabet.size()];
+        long nfaBytes = fsa.memoryBytes() + 5L * key.length;
+        checkLimits(table, nfaBytes);
+
+        // states that cannot reach an accept state are dropped from every set, as CompiledNFA does
+        boolean[] live = liveStates(fsa);
+
+        // start with epsilon closure of start state, empty if there is none
+        int len = fsa.getStartState() < 0 ? 0 : fsa.closure(new int[] { fsa.getStartState() }, 1, key);
+        len = dropDead(key, len, live);
+        table.add(key, len, SubsetTable.hash(key, len));
+        dfa.addState(0, true, fsa.isAccepting(key, len));
+
+        for (int currentId = 0; currentId < table.size(); currentId++) {
+            int[] current = table.get(currentId);
+
+            // collect the columns of the symbols leaving the set
+            int columnCount = 0;
+            for (int s : current) {
+                for (int e = fsa.edgeStart(s); e < fsa.edgeEnd(s); e++) {
+                    char label = fsa.getLabel(e);
+                    if (label != FSA.EPSILON && !seen[alphabet.columnOf(label)]) {
+                        seen[alphabet.columnOf(label)] = true;
+                        columns[columnCount++] = alphabet.columnOf(label);
+                    }
+                }
+            }
+            Arrays.sort(columns, 0, columnCount);
+
+            for (int i = 0; i < columnCount; i++) {
+                int col = columns[i];
+                seen[col] = false;
+                len = dropDead(key, fsa.step(current, current.length, alphabet.symbolAt(col), key), live);
+                if (len == 0) {
+                    continue;
+                }
+
+                int hash = SubsetTable.hash(key, len);
+                int toId = table.find(key, len, hash);
+                if (toId < 0) {
+                    checkLimits(table, nfaBytes);
+                    toId = table.add(key, len, hash);
+                    dfa.addState(toId, false, fsa.isAccepting(key, len));
+                }
+                addTransitions(dfa, currentId, toId, alphabet, col);
+            }
+        }
+
+        if (Metrics.ENABLED) {
+            Metrics.conversion(fsa.getStateCount(), table.size(), started);
+        }
+        return dfa;
+    }
+
+    // finds the states of a packed automaton that can reach an accept state, searching its edges backwards
+    private static boolean[] liveStates(PackedFSA fsa) {
+        int n = fsa.getStateCount();
+        int[] offsets = new int[n + 1];
+        for (int s = 0; s < n; s++) {
+            for (int e = fsa.edgeStart(s); e < fsa.edgeEnd(s); e++) {
+                offsets[fsa.getTarget(e) + 1]++;
+            }
+        }
+        for (int s = 0; s < n; s++) {
+            offsets[s + 1] += offsets[s];
+        }
+        int[] sources = new int[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int s = 0; s < n; s++) {
+            for (int e = fsa.edgeStart(s); e < fsa.edgeEnd(s); e++) {
+                sources[fill[fsa.getTarget(e)]++] = s;
+            }
+        }
+
+        boolean[] live = new boolean[n];
+        int[] stack = new int[n];
+        int top = 0;
+        for (int s = 0; s < n; s++) {
+            if (fsa.isAccepting(s)) {
+                live[s] = true;
+                stack[top++] = s;
+            }
+        }
+        while (top > 0) {
+            int current = stack[--top];
+            for (int i = offsets[current]; i < offsets[current + 1]; i++) {
+                int prev = sources[i];
+                if (!live[prev]) {
+                    live[prev] = true;
+                    stack[top++] = prev;
+                }
+            }
+        }
+        return live;
+    }
+
+    // removes the states that are not live from the first len of a sorted key, returns the new length
+    private static int dropDead(int[] key, int len, boolean[] live) {
+        int kept = 0;
+        for (int i = 0; i < len; i++) {
+            if (live[key[i]]) {
+                key[kept++] = key[i];
+            }
+        }
+        return kept;
+    }
+
+    // adds the transition for every symbol of a column, the DFA keeps one edge per symbol
+    private static void addTransitions(DFA dfa, int fromId, int toId, Alphabet alphabet, int col) {
+        for (int i = alphabet.columnStart(col); i < alphabet.columnStart(col + 1); i++) {
+            dfa.addTransition(fromId, toId, alphabet.symbol(i));
+        }
+    }
+
+    // fails before adding a state that would go past a limit, nfaBytes is the converted NFA's share
+    private void checkLimits(SubsetTable table, long nfaBytes) {
+        if (table.size() >= maxStates) {
+            throw new IllegalStateException("Subset construction exceeded " + maxStates + " DFA states");
+        }
+        if (nfaBytes + table.memoryBytes() > maxMemoryBytes) {
+            throw new IllegalStateException("Subset construction exceeded " + maxMemoryBytes + " bytes ("
+                + nfaBytes + " for the NFA, " + table.memoryBytes() + " for the subset table, "
+                + table.size() + " DFA states so far)");
+        }
+    }
+
+    // successors of one breadth-first level, slot (ID - lo) * width + column
+    private static class Level {
+        final CompiledNFA nfa;
+        final SubsetTable table; // only read while the level expands
+        final int lo;
+        final int[] targets;     // known successor ID, NONE or NEW
+        final int[][] keys;      // successor set where targets is NEW
+        final int[] hashes;
+        final boolean[] accepting;
+
+        Level(CompiledNFA nfa, SubsetTable table, int lo, int hi) {
+            this.nfa = nfa;
+            this.table = table;
+            this.lo = lo;
+            int slots = (hi - lo) * nfa.getAlphabet().size();
+            targets = new int[slots];
+            keys = new int[slots][];
+            hashes = new int[slots];
+            accepting = new boolean[slots];
+        }
+
+        // steps the sets with IDs from..to on every column, each call with its own buffers
+        void expand(int from, int to) {
+            int width = nfa.getAlphabet().size();
+            long[] current = new long[nfa.getWords()];
+            long[] next = new long[nfa.getWords()];
+            int[] key = new int[nfa.getStateCount()];
+            for (int id = from; id < to; id++) {
+                toBits(table.get(id), current);
+                for (int col = 0; col < width; col++) {
+                    int slot = (id - lo) * width + col;
+                    if (!nfa.stepColumn(current, col, next)) {
+                        targets[slot] = NONE;
+                        continue;
+                    }
+                    int len = toKey(next, key);
+                    int hash = SubsetTable.hash(key, len);
+                    int known = table.find(key, len, hash);
+                    if (known >= 0) {
+                        targets[slot] = known;
+                    } else {
+                        targets[slot] = NEW;
+                        keys[slot] = Arrays.copyOf(key, len);
+                        hashes[slot] = hash;
+                        accepting[slot] = nfa.isAccepting(next);
+                    }
+                }
+            }
+        }
+    }
+
+    // expands IDs from..to of a level, splitting in halves while the range is large
+    private static class Expand extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Level level;
+        private final int from;
+        private final int to;
+        private final int slice;
+
+        Expand(Level level, int from, int to, int slice) {
+            this.level = level;
+            this.from = from;
+            this.to = to;
+            this.slice = slice;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= slice) {
+                level.expand(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Expand(level, from, mid, slice), new Expand(level, mid, to, slice));
+        }
+    }
+
+    // writes the set bits of a bitset into key in ascending order, returns count
+    static int toKey(long[] bits, int[] key) {
+        int len = 0;
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                key[len++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return len;
+    }
+
+    // overwrites bits with the states listed in key
+    static void toBits(int[] key, long[] bits) {
+        Arrays.fill(bits, 0L);
+        for (int s : key) {
+            bits[s >>> 6] |= 1L << s;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.Arrays;
+
+/*
+ * Intern table for sets of NFA states used during subset construction.
+ * Each set is stored once as a sorted int[] with its hash cached, and gets
+ * a dense ID in insertion order. Lookups use open addressing with linear
+ * probing, so finding an existing set allocates nothing.
+ */
+public class SubsetTable {
+    private static final int EMPTY = -1;
+
+    private int[][] keys;  // ID -> sorted state IDs
+    private int[] hashes;  // ID -> cached hash of key
+    private int[] slots;   // open-addressing slots holding IDs, EMPTY if unused
+    private int size;
+    private long keyBytes; // approximate heap used by stored keys
+
+    // constructs empty table
+    public SubsetTable() {
+        keys = new int[16][];
+        hashes = new int[16];
+        slots = new int[32];
+        Arrays.fill(slots, EMPTY);
+    }
+
+    // hashes the first len entries of a sorted key
+    public static int hash(int[] key, int len) {
+        int h = len;
+        for (int i = 0; i < len; i++) {
+            h = h * 31 + key[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Finds the ID of a set without storing it
+     * @param key sorted state IDs, only the first len are used
+     * @param len number of states in the set
+     * @param hash value of hash(key, len)
+     * @return ID of the set, or -1 if not present
+     */
+    public int find(int[] key, int len, int hash) {
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot];
+            if (id == EMPTY) {
+                return -1;
+            }
+            if (hashes[id] == hash && Arrays.equals(keys[id], 0, keys[id].length, key, 0, len)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Stores a set that is not yet present, copying the key
+     * @param key sorted state IDs, only the first len are used
+     * @param len number of states in the set
+     * @param hash value of hash(key, len)
+     * @return new ID of the set
+     */
+    public int add(int[] key, int len, int hash) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        if ((size + 1) * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        int id = size++;
+        keys[id] = Arrays.copyOf(key, len);
+        hashes[id] = hash;
+        keyBytes += 16 + 4L * len; // array header plus elements
+        insert(id);
+        return id;
+    }
+
+    // places an ID into the first free slot of its probe sequence
+    private void insert(int id) {
+        int mask = slots.length - 1;
+        int slot = hashes[id] & mask;
+        while (slots[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = id;
+    }
+
+    // grows the slot array and reinserts every ID using its cached hash
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        for (int id = 0; id < size; id++) {
+            insert(id);
+        }
+    }
+
+    // gets the sorted state IDs of a set, must not be modified
+    public int[] get(int id) {
+        return keys[id];
+    }
+
+    // number of stored sets
+    public int size() {
+        return size;
+    }
+
+    // approximate heap used by the table in bytes
+    public long memoryBytes() {
+        return keyBytes + 4L * slots.length + 12L * keys.length;
+    }
+}
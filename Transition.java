@@ -1,8 +1,8 @@
 // represents a transition between two states in a finite state automaton.
 public class Transition {
-    private State fromState;
-    private State toState;
-    private char symbol;
+    private final State fromState;
+    private final State toState;
+    private final char symbol;
 
     public Transition(State from, State to, char symbol) {
         this.fromState = from; // source state
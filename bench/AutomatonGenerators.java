@@ -0,0 +1,166 @@
+import java.util.Random;
+
+/*
+ * Builds parameterized automata and inputs for the benchmarks.
+ * Everything is seeded, so two runs see exactly the same automata and input.
+ */
+public class AutomatonGenerators {
+    private AutomatonGenerators() {
+    }
+
+    // gets the first size symbols: 'a'..'z', then chars from U+0100 on
+    public static char[] symbols(int size) {
+        char[] result = new char[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = i < 26 ? (char) ('a' + i) : (char) (0x100 + i);
+        }
+        return result;
+    }
+
+    /**
+     * Builds a random NFA, state 0 is the start and about one state in eight accepts
+     * @param states number of states
+     * @param edgesPerState outgoing transitions per state
+     * @param alphabetSize number of symbols
+     * @param epsilonRate fraction of transitions that are epsilon
+     * @param seed random seed
+     * @return random NFA
+     */
+    public static NFA randomNFA(int states, int edgesPerState, int alphabetSize, double epsilonRate, long seed) {
+        Random random = new Random(seed);
+        char[] symbols = symbols(alphabetSize);
+        NFA nfa = new NFA();
+        for (int i = 0; i < states; i++) {
+            nfa.addState(i, i == 0, random.nextInt(8) == 0);
+        }
+        for (int i = 0; i < states; i++) {
+            for (int e = 0; e < edgesPerState; e++) {
+                char symbol = random.nextDouble() < epsilonRate ? FSA.EPSILON : symbols[random.nextInt(alphabetSize)];
+                nfa.addTransition(i, random.nextInt(states), symbol);
+            }
+        }
+        return nfa;
+    }
+
+    /**
+     * Builds the same automaton as randomNFA with the same arguments, in packed form
+     * @param states number of states
+     * @param edgesPerState outgoing transitions per state
+     * @param alphabetSize number of symbols
+     * @param epsilonRate fraction of transitions that are epsilon
+     * @param seed random seed
+     * @return random packed automaton
+     */
+    public static PackedFSA randomPacked(int states, int edgesPerState, int alphabetSize, double epsilonRate, long seed) {
+        Random random = new Random(seed);
+        char[] symbols = symbols(alphabetSize);
+        PackedFSA fsa = new PackedFSA();
+        for (int i = 0; i < states; i++) {
+            fsa.addState(i, i == 0, random.nextInt(8) == 0);
+        }
+        for (int i = 0; i < states; i++) {
+            for (int e = 0; e < edgesPerState; e++) {
+                char symbol = random.nextDouble() < epsilonRate ? FSA.EPSILON : symbols[random.nextInt(alphabetSize)];
+                fsa.addTransition(i, random.nextInt(states), symbol);
+            }
+        }
+        return fsa;
+    }
+
+    /**
+     * Builds the NFA for (a|b)*a(a|b)^n, whose minimal DFA has 2^(n+1) states
+     * @param n number of (a|b) after the marked 'a'
+     * @return NFA with n + 2 states
+     */
+    public static NFA blowup(int n) {
+        NFA nfa = new NFA();
+        for (int i = 0; i <= n + 1; i++) {
+            nfa.addState(i, i == 0, i == n + 1);
+        }
+        nfa.addTransition(0, 0, 'a');
+        nfa.addTransition(0, 0, 'b');
+        nfa.addTransition(0, 1, 'a');
+        for (int i = 1; i <= n; i++) {
+            nfa.addTransition(i, i + 1, 'a');
+            nfa.addTransition(i, i + 1, 'b');
+        }
+        return nfa;
+    }
+
+    // builds the Thompson NFA for (a|b)*abb used in Main
+    public static NFA exampleNFA() {
+        NFA nfa = new NFA();
+        for (int i = 0; i <= 10; i++) {
+            nfa.addState(i, i == 0, i == 10);
+        }
+        nfa.addTransition(0, 1, FSA.EPSILON);
+        nfa.addTransition(0, 7, FSA.EPSILON);
+        nfa.addTransition(1, 2, FSA.EPSILON);
+        nfa.addTransition(1, 4, FSA.EPSILON);
+        nfa.addTransition(2, 3, 'a');
+        nfa.addTransition(4, 5, 'b');
+        nfa.addTransition(3, 6, FSA.EPSILON);
+        nfa.addTransition(5, 6, FSA.EPSILON);
+        nfa.addTransition(6, 1, FSA.EPSILON);
+        nfa.addTransition(6, 7, FSA.EPSILON);
+        nfa.addTransition(7, 8, 'a');
+        nfa.addTransition(8, 9, 'b');
+        nfa.addTransition(9, 10, 'b');
+        return nfa;
+    }
+
+    /**
+     * Builds a complete random DFA: every state has a transition on every symbol,
+     * so no input ever dies early
+     * @param states number of states
+     * @param alphabetSize number of symbols
+     * @param seed random seed
+     * @return random complete DFA
+     */
+    public static DFA completeDFA(int states, int alphabetSize, long seed) {
+        Random random = new Random(seed);
+        char[] symbols = symbols(alphabetSize);
+        DFA dfa = new DFA();
+        for (int i = 0; i < states; i++) {
+            dfa.addState(i, i == 0, random.nextBoolean());
+        }
+        for (int i = 0; i < states; i++) {
+            for (char symbol : symbols) {
+                dfa.addTransition(i, random.nextInt(states), symbol);
+            }
+        }
+        return dfa;
+    }
+
+    /**
+     * Builds random regular expressions of a few dozen characters each,
+     * mixing literals, classes, alternation and repetition
+     * @param count number of patterns
+     * @param seed random seed
+     * @return patterns accepted by RegexCompiler
+     */
+    public static String[] randomPatterns(int count, long seed) {
+        Random random = new Random(seed);
+        String[] pieces = { "abc", "[a-f]", "\\d+", "(foo|bar)", "x*", "[^ ]", "(ab|cd)*", "y?", "\\w", "." };
+        String[] patterns = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder();
+            int parts = 3 + random.nextInt(6);
+            for (int p = 0; p < parts; p++) {
+                sb.append(pieces[random.nextInt(pieces.length)]);
+            }
+            patterns[i] = sb.toString();
+        }
+        return patterns;
+    }
+
+    // builds a random string over the given symbols
+    public static String randomInput(char[] symbols, int length, long seed) {
+        Random random = new Random(seed);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = symbols[random.nextInt(symbols.length)];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,499 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/*
+ * Benchmark suite for construction, closure, conversion and matching.
+ * Each benchmark is warmed up, then run repeatedly for a fixed time. A row
+ * reports time per operation, operations per second, characters matched per
+ * second and bytes allocated per operation (the same number as JMH's
+ * gc.alloc.rate.norm), measured with the thread allocation counter.
+ * heap.* rows instead report the heap an automaton keeps alive, after GC.
+ *
+ * Usage: java -cp .:bench Benchmarks [--quick] [--filter=text]
+ *   --quick        shorter runs and inputs of at most 100 KB, for a smoke test
+ *   --filter=text  only run benchmarks whose name contains text
+ */
+public class Benchmarks {
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long warmupNanos = 1_000_000_000L;
+    private static long measureNanos = 2_000_000_000L;
+    private static int[] lengths = { 10, 1_000, 100_000, 10_000_000, 100_000_000 };
+    private static String filter = "";
+    private static long sink; // results are added here so the JIT cannot drop the work
+
+    // one benchmarked operation, returns something derived from its result
+    interface Op {
+        long run();
+    }
+
+    public static void main(String[] args) {
+        for (String arg : args) {
+            if (arg.equals("--quick")) {
+                warmupNanos = 200_000_000L;
+                measureNanos = 500_000_000L;
+                lengths = new int[] { 10, 1_000, 100_000 };
+            } else if (arg.startsWith("--filter=")) {
+                filter = arg.substring("--filter=".length());
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        System.out.println("# java " + System.getProperty("java.version") + ", "
+            + Runtime.getRuntime().availableProcessors() + " cpu(s), max heap "
+            + (Runtime.getRuntime().maxMemory() >> 20) + " MB");
+        System.out.println(String.format(Locale.ROOT, "%-22s %-36s %10s %12s %10s %12s",
+            "benchmark", "params", "time/op", "ops/s", "Mchar/s", "alloc B/op"));
+
+        construction();
+        footprint();
+        conversion();
+        matching();
+        multiPattern();
+        search();
+        chunked();
+        shared();
+        equivalence();
+        optimization();
+
+        System.out.println("# sink " + (sink & 1));
+    }
+
+    // building automata and their closures
+    private static void construction() {
+        measure("construct.randomNFA", "states=10000 edges=3", 0,
+            () -> AutomatonGenerators.randomNFA(10_000, 3, 4, 0.2, 1).getTransitions().size());
+
+        NFA nfa = AutomatonGenerators.randomNFA(10_000, 3, 4, 0.2, 1);
+        measure("closure.precompute", "states=10000 edges=3", 0, () -> {
+            nfa.precomputeClosures();
+            return nfa.getClosureCacheMisses();
+        });
+        measure("closure.cached", "states=10000 edges=3", 0, () -> {
+            long total = 0;
+            for (State s : nfa.getStates()) {
+                total += nfa.closure(s).size();
+            }
+            return total;
+        });
+
+        measure("construct.randomNFA", "states=250000 edges=4", 0,
+            () -> AutomatonGenerators.randomNFA(250_000, 4, 4, 0.2, 1).getTransitions().size());
+        measure("construct.PackedFSA", "states=250000 edges=4", 0, () -> {
+            PackedFSA packed = AutomatonGenerators.randomPacked(250_000, 4, 4, 0.2, 1);
+            return packed.edgeEnd(0); // forces the CSR index
+        });
+
+        measure("compile.NFA", "states=10000 edges=3", 0, () -> nfa.compile().getStateCount());
+
+        String[] patterns = AutomatonGenerators.randomPatterns(10_000, 5);
+        RegexCompiler regex = new RegexCompiler();
+        measure("compile.regex.NFA", "patterns=10000", 0, () -> {
+            long total = 0;
+            for (String pattern : patterns) {
+                total += regex.compile(pattern).getStates().size();
+            }
+            return total;
+        });
+        measure("compile.regex.bitsets", "patterns=10000", 0, () -> {
+            long total = 0;
+            for (String pattern : patterns) {
+                total += regex.compileToBitsets(pattern).getStateCount();
+            }
+            return total;
+        });
+    }
+
+    // heap kept alive by a million-edge automaton in each representation
+    private static void footprint() {
+        retained("heap.NFA", 1_000_000, () -> AutomatonGenerators.randomNFA(250_000, 4, 4, 0.2, 1));
+        retained("heap.PackedFSA", 1_000_000, () -> {
+            PackedFSA packed = AutomatonGenerators.randomPacked(250_000, 4, 4, 0.2, 1);
+            packed.edgeEnd(0);
+            return packed;
+        });
+    }
+
+    // subset construction and minimization
+    private static void conversion() {
+        for (int n : new int[] { 8, 12, 14 }) {
+            NFA nfa = AutomatonGenerators.blowup(n);
+            measure("convert.toDFA", "blowup n=" + n, 0, () -> nfa.toDFA().getStates().size());
+        }
+        NFA random = AutomatonGenerators.randomNFA(60, 2, 2, 0.1, 7);
+        measure("convert.toDFA", "random states=60", 0, () -> random.toDFA().getStates().size());
+        PackedFSA randomPacked = AutomatonGenerators.randomPacked(60, 2, 2, 0.1, 7);
+        measure("convert.packed.toDFA", "random states=60", 0, () -> randomPacked.toDFA().getStates().size());
+
+        // level-synchronous parallel subset construction, same output as toDFA()
+        NFA blowup = AutomatonGenerators.blowup(16);
+        for (int threads : new int[] { 1, 2, 4, 8, 16, 32 }) {
+            java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(threads);
+            measure("convert.toDFA.parallel", "blowup n=16 threads=" + threads, 0,
+                () -> blowup.toDFA(pool).getStates().size());
+            pool.shutdown();
+        }
+        measure("convert.toDFA", "blowup n=16", 0, () -> blowup.toDFA().getStates().size());
+
+        DFA blown = AutomatonGenerators.blowup(12).toDFA();
+        measure("convert.minimize", "blowup n=12", 0, () -> blown.minimize().getStates().size());
+
+        // 96 printable symbols that fall into two classes, 'a' and the rest
+        NFA wide = new RegexCompiler().compile(".*a........");
+        measure("convert.toDFA", "regex .*a.{8} symbols=96", 0, () -> wide.toDFA().getStates().size());
+        DFA wideDFA = wide.toDFA();
+        measure("convert.minimize", "regex .*a.{8} symbols=96", 0, () -> wideDFA.minimize().getStates().size());
+        measure("compile.DFA", "regex .*a.{8} symbols=96", 0, () -> wideDFA.compile().getStateCount());
+
+        // startup from a saved table instead of rerunning subset construction
+        Path saved = saveTemp(AutomatonGenerators.blowup(14).toDFA().compile());
+        measure("load.MappedDFA", "blowup n=14", 0, () -> {
+            try {
+                return MappedDFA.load(saved).getStateCount();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // matching one input with each engine, over a range of input lengths
+    private static void matching() {
+        NFA example = AutomatonGenerators.exampleNFA();
+        DFA exampleDFA = example.toDFA();
+        CompiledDFA compiledDFA = exampleDFA.compile();
+        CompiledNFA compiledNFA = example.compile();
+        LazyDFA lazy = example.toLazyDFA(1024);
+        MappedDFA mapped = loadTemp(compiledDFA);
+        BytecodeDFA bytecode = new BytecodeDFA(compiledDFA);
+        BitParallelNFA bitParallel = compiledNFA.getBitParallel();
+
+        NFA blowup = AutomatonGenerators.blowup(12);
+        CompiledNFA blowupNFA = blowup.compile();
+        BitParallelNFA blowupBits = blowupNFA.getBitParallel();
+        LazyDFA blowupLazy = blowup.toLazyDFA(1024);
+
+        char[] wide = AutomatonGenerators.symbols(500);
+        CompiledDFA wideDFA = AutomatonGenerators.completeDFA(1000, 500, 3).compile();
+
+        char[] ab = { 'a', 'b' };
+        for (int length : lengths) {
+            String input = AutomatonGenerators.randomInput(ab, length, length);
+            String params = "(a|b)*abb len=" + length;
+
+            // the object-graph engines are too slow for the largest inputs
+            if (length <= 100_000) {
+                measure("match.FSA.accepts", params, length, () -> example.accepts(input) ? 1 : 0);
+            }
+            if (length <= 10_000_000) {
+                measure("match.DFA.accepts", params, length, () -> exampleDFA.accepts(input) ? 1 : 0);
+            }
+            measure("match.CompiledDFA", params, length, () -> compiledDFA.accepts(input) ? 1 : 0);
+            measure("match.CompiledNFA", params, length, () -> compiledNFA.accepts(input) ? 1 : 0);
+            measure("match.LazyDFA", params, length, () -> lazy.accepts(input) ? 1 : 0);
+            measure("match.MappedDFA", params, length, () -> mapped.accepts(input) ? 1 : 0);
+            measure("match.BytecodeDFA", params, length, () -> bytecode.accepts(input) ? 1 : 0);
+            measure("match.BitParallelNFA", params, length, () -> bitParallel.accepts(input) ? 1 : 0);
+
+            String blowupParams = "blowup n=12 len=" + length;
+            measure("match.CompiledNFA", blowupParams, length, () -> blowupNFA.accepts(input) ? 1 : 0);
+            measure("match.LazyDFA", blowupParams, length, () -> blowupLazy.accepts(input) ? 1 : 0);
+            measure("match.BitParallelNFA", blowupParams, length, () -> blowupBits.accepts(input) ? 1 : 0);
+
+            String wideInput = AutomatonGenerators.randomInput(wide, length, length);
+            measure("match.CompiledDFA", "states=1000 symbols=500 len=" + length, length,
+                () -> wideDFA.accepts(wideInput) ? 1 : 0);
+        }
+    }
+
+    // one input against many patterns: one at a time versus one combined lazy DFA
+    private static void multiPattern() {
+        String[] sources = AutomatonGenerators.randomPatterns(200, 9);
+        RegexCompiler regex = new RegexCompiler();
+        List<NFA> patterns = new ArrayList<>();
+        CompiledDFA[] tables = new CompiledDFA[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            patterns.add(regex.compile(sources[i]));
+            tables[i] = patterns.get(i).toDFA().compile();
+        }
+        MultiMatcher multi = new MultiMatcher(patterns, 10_000);
+
+        char[] symbols = "abcdefoxyr0123 ".toCharArray();
+        String[] inputs = new String[1000];
+        long chars = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = AutomatonGenerators.randomInput(symbols, 8 + i % 24, i);
+            chars += inputs[i].length();
+        }
+
+        String params = "patterns=200 inputs=1000";
+        measure("multi.sequentialDFA", params, chars, () -> {
+            long hits = 0;
+            for (String input : inputs) {
+                for (CompiledDFA table : tables) {
+                    hits += table.accepts(input) ? 1 : 0;
+                }
+            }
+            return hits;
+        });
+        measure("multi.MultiMatcher", params, chars, () -> {
+            long hits = 0;
+            for (String input : inputs) {
+                hits += multi.matchIds(input).length;
+            }
+            return hits;
+        });
+    }
+
+    // finding every match in one text: anchored runs from each position versus the search modes
+    private static void search() {
+        String pattern = "(foo|ba+r)[a-f]*";
+        NFA nfa = new RegexCompiler().compile(pattern);
+        CompiledDFA anchored = nfa.toDFA().compile();
+        java.util.regex.Pattern jdk = java.util.regex.Pattern.compile(pattern);
+        Searcher first = nfa.searcher(Searcher.Mode.LEFTMOST_FIRST);
+        Searcher longest = nfa.searcher(Searcher.Mode.LEFTMOST_LONGEST);
+        Searcher overlapping = nfa.searcher(Searcher.Mode.ALL_OVERLAPPING);
+
+        int length = Math.min(1_000_000, lengths[lengths.length - 1]);
+        String text = AutomatonGenerators.randomInput("abcdefor xyz".toCharArray(), length, length);
+        String params = pattern + " len=" + length;
+        measure("search.anchoredEachPos", params, length, () -> {
+            long hits = 0;
+            for (int s = 0; s < length; ) {
+                int state = anchored.getStartState();
+                int end = -1;
+                for (int i = s; i < length && state != CompiledDFA.DEAD; i++) {
+                    state = anchored.step(state, text.charAt(i));
+                    if (state != CompiledDFA.DEAD && anchored.isAccepting(state)) {
+                        end = i + 1;
+                    }
+                }
+                if (end < 0) {
+                    s++;
+                } else {
+                    hits++;
+                    s = end;
+                }
+            }
+            return hits;
+        });
+        measure("search.java.util.regex", params, length, () -> {
+            java.util.regex.Matcher m = jdk.matcher(text);
+            long hits = 0;
+            while (m.find()) {
+                hits++;
+            }
+            return hits;
+        });
+        measure("search.leftmostFirst", params, length, () -> first.count(text));
+        measure("search.leftmostLongest", params, length, () -> longest.count(text));
+        measure("search.allOverlapping", params, length, () -> overlapping.count(text));
+    }
+
+    // one long input split into chunks run from every state, on pools of several sizes
+    private static void chunked() {
+        CompiledDFA dfa = AutomatonGenerators.exampleNFA().toDFA().compile();
+        ByteDFA bytes = new ByteDFA(dfa);
+        int length = lengths[lengths.length - 1];
+        String input = AutomatonGenerators.randomInput(new char[] { 'a', 'b' }, length, length);
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.wrap(input.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+
+        String params = "(a|b)*abb len=" + length;
+        measure("chunked.sequential", params, length, () -> dfa.accepts(input) ? 1 : 0);
+        int cpus = Runtime.getRuntime().availableProcessors();
+        for (int threads : new java.util.TreeSet<>(List.of(1, 2, 4, cpus))) {
+            java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(threads);
+            String poolParams = params + " threads=" + threads;
+            measure("chunked.CompiledDFA", poolParams, length, () -> ChunkedMatcher.accepts(dfa, input, pool) ? 1 : 0);
+            measure("chunked.ByteDFA", poolParams, length,
+                () -> ChunkedMatcher.accepts(bytes, buffer, 0, length, pool) ? 1 : 0);
+            pool.shutdown();
+        }
+    }
+
+
+    // language equivalence and inclusion, on large DFAs and on an NFA against its DFA
+    private static void equivalence() {
+        DFA random = AutomatonGenerators.completeDFA(100_000, 4, 1);
+        CompiledDFA original = random.compile();
+        CompiledDFA minimal = random.minimize().compile();
+        String params = "random DFA states=100000 vs minimal";
+        measure("equiv.HopcroftKarp", params, 0, () -> Equivalence.equivalent(original, minimal) ? 1 : 0);
+        measure("equiv.DFA.inclusion", params, 0,
+            () -> Equivalence.inclusionCounterexample(original, minimal) == null ? 1 : 0);
+
+        NFA blowup = AutomatonGenerators.blowup(12);
+        PackedFSA nfa = new PackedFSA(blowup);
+        PackedFSA dfa = new PackedFSA(blowup.toDFA().minimize());
+        measure("equiv.antichain", "blowup n=12 NFA vs minimal DFA", 0, () -> {
+            boolean same = Equivalence.inclusionCounterexample(nfa, dfa) == null
+                && Equivalence.inclusionCounterexample(dfa, nfa) == null;
+            return same ? 1 : 0;
+        });
+    }
+
+    // the NFA optimizer itself, then conversion and matching before and after it
+    private static void optimization() {
+        NFA random = AutomatonGenerators.randomNFA(60, 2, 2, 0.1, 7);
+        measure("optimize.NFA", "random states=60", 0, () -> random.optimize().getStates().size());
+        NFA wide = new RegexCompiler().compile(".*a........");
+        measure("optimize.NFA", "regex .*a.{8} symbols=96", 0, () -> wide.optimize().getStates().size());
+
+        NFA wideOptimized = wide.optimize();
+        measure("convert.toDFA", "optimized regex .*a.{8} symbols=96", 0,
+            () -> wideOptimized.toDFA().getStates().size());
+
+        NFA example = AutomatonGenerators.exampleNFA();
+        NFA exampleOptimized = example.optimize();
+        CompiledNFA compiled = example.compile();
+        CompiledNFA compiledOptimized = exampleOptimized.compile();
+        int length = Math.min(100_000, lengths[lengths.length - 1]);
+        String input = AutomatonGenerators.randomInput(new char[] { 'a', 'b' }, length, length);
+        measure("match.FSA.accepts", "(a|b)*abb len=" + length, length, () -> example.accepts(input) ? 1 : 0);
+        measure("match.FSA.accepts", "optimized (a|b)*abb len=" + length, length,
+            () -> exampleOptimized.accepts(input) ? 1 : 0);
+        measure("match.CompiledNFA", "(a|b)*abb len=" + length, length, () -> compiled.accepts(input) ? 1 : 0);
+        measure("match.CompiledNFA", "optimized (a|b)*abb len=" + length, length,
+            () -> compiledOptimized.accepts(input) ? 1 : 0);
+    }
+
+    // one automaton matched from several threads: behind a lock versus a frozen snapshot
+    private static void shared() {
+        DFA dfa = AutomatonGenerators.exampleNFA().toDFA();
+        FrozenFSA frozen = dfa.freeze();
+        String input = AutomatonGenerators.randomInput(new char[] { 'a', 'b' }, 1_000, 1_000);
+        int perThread = 1_000;
+
+        int cpus = Runtime.getRuntime().availableProcessors();
+        for (int threads : new java.util.TreeSet<>(List.of(1, 2, 4, cpus))) {
+            java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(threads);
+            String params = "(a|b)*abb len=1000 threads=" + threads;
+            long chars = (long) threads * perThread * input.length();
+            measure("shared.synchronizedDFA", params, chars, () -> runOnThreads(pool, threads, () -> {
+                long accepted = 0;
+                for (int i = 0; i < perThread; i++) {
+                    synchronized (dfa) {
+                        accepted += dfa.accepts(input) ? 1 : 0;
+                    }
+                }
+                return accepted;
+            }));
+            measure("shared.FrozenFSA", params, chars, () -> runOnThreads(pool, threads, () -> {
+                long accepted = 0;
+                for (int i = 0; i < perThread; i++) {
+                    accepted += frozen.accepts(input) ? 1 : 0;
+                }
+                return accepted;
+            }));
+            pool.shutdown();
+        }
+    }
+
+    // runs the task once on each of the given number of pool threads and sums the results
+    private static long runOnThreads(java.util.concurrent.ExecutorService pool, int threads,
+            java.util.concurrent.Callable<Long> task) {
+        try {
+            long total = 0;
+            for (java.util.concurrent.Future<Long> result : pool.invokeAll(java.util.Collections.nCopies(threads, task))) {
+                total += result.get();
+            }
+            return total;
+        } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Path saveTemp(CompiledDFA dfa) {
+        try {
+            Path file = Files.createTempFile("bench", ".dfa");
+            file.toFile().deleteOnExit();
+            dfa.save(file);
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // saves a DFA and maps it back
+    private static MappedDFA loadTemp(CompiledDFA dfa) {
+        try {
+            return MappedDFA.load(saveTemp(dfa));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // builds an object and prints the heap still in use while it is reachable
+    private static void retained(String benchmark, long edges, Supplier<Object> build) {
+        if (!benchmark.contains(filter)) {
+            return;
+        }
+        long before = usedHeap();
+        Object kept = build.get();
+        long after = usedHeap();
+        sink += kept.hashCode();
+        System.out.println(String.format(Locale.ROOT, "%-22s %-36s %10.1f MB %10.1f B/edge",
+            benchmark, "retained, edges=" + edges, (after - before) / 1e6, (double) (after - before) / edges));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // runs one benchmark and prints its row
+    private static void measure(String benchmark, String params, long charsPerOp, Op op) {
+        if (!benchmark.contains(filter)) {
+            return;
+        }
+
+        long stop = System.nanoTime() + warmupNanos;
+        do {
+            sink += op.run();
+        } while (System.nanoTime() < stop);
+
+        long ops = 0;
+        long allocStart = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long start = System.nanoTime();
+        stop = start + measureNanos;
+        do {
+            sink += op.run();
+            ops++;
+        } while (System.nanoTime() < stop);
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocStart;
+
+        double nanosPerOp = (double) elapsed / ops;
+        double opsPerSecond = ops * 1e9 / elapsed;
+        String charRate = charsPerOp == 0 ? "-"
+            : String.format(Locale.ROOT, "%.1f", charsPerOp * opsPerSecond / 1e6);
+        System.out.println(String.format(Locale.ROOT, "%-22s %-36s %10s %12.1f %10s %12d",
+            benchmark, params, formatTime(nanosPerOp), opsPerSecond, charRate, allocated / ops));
+    }
+
+    // formats a duration with a readable unit
+    private static String formatTime(double nanos) {
+        if (nanos < 1e3) {
+            return String.format(Locale.ROOT, "%.1f ns", nanos);
+        }
+        if (nanos < 1e6) {
+            return String.format(Locale.ROOT, "%.2f us", nanos / 1e3);
+        }
+        if (nanos < 1e9) {
+            return String.format(Locale.ROOT, "%.2f ms", nanos / 1e6);
+        }
+        return String.format(Locale.ROOT, "%.2f s", nanos / 1e9);
+    }
+}